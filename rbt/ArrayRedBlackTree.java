@@ -0,0 +1,489 @@
+package rbt;
+
+
+import java.util.Arrays;
+
+/**
+ * 以数组池（struct-of-arrays）方式存储节点的红黑树，算法与 {@link RedBlackTreeFromJDK} 完全一致。
+ * 每个节点不再是一个 {@link Node} 对象，而是一个 int 下标：keys/left/right/parent 四个 int 数组分别存放键值和链接，
+ * 颜色压缩在 long[] 位图中（对应位为1表示红色，为0表示黑色，因此新扩容出来的槽位默认是黑色，和Node的默认值一致）。
+ * 这样每个键只占 4*4 字节加 1 bit，没有对象头和引用，插入时也不会分配对象；数组在容量不足时按倍数自动扩容。
+ * 被删除节点的槽位通过 left 数组串成空闲链表，供后续插入复用。
+ * 各种情况的分析参见 {@link RedBlackTreeFromJDK#add(int)} 和 {@link RedBlackTreeFromJDK#remove(int)}。
+ */
+public class ArrayRedBlackTree {
+
+    /**
+     * 空节点下标，相当于null。
+     */
+    static final int NIL = -1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private long[] red;
+
+    private int root = NIL;
+    private int size = 0;
+    /**
+     * 从未使用过的第一个槽位，即数组中已使用槽位的高水位线。
+     */
+    private int used = 0;
+    /**
+     * 空闲链表的头部。空闲槽位之间通过left数组串联。
+     */
+    private int freeHead = NIL;
+
+    public ArrayRedBlackTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity 初始可容纳的节点数目。预先给足容量可以避免插入过程中的扩容。
+     */
+    public ArrayRedBlackTree(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+        }
+        int cap = Math.max(initialCapacity, 1);
+        this.keys = new int[cap];
+        this.left = new int[cap];
+        this.right = new int[cap];
+        this.parent = new int[cap];
+        this.red = new long[(cap + 63) >>> 6];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 返回包含值k的节点下标
+     * @param k k
+     * @return 如果包含，返回节点下标；否则，返回NIL。
+     */
+    private int getNode(int k) {
+        int node = root;
+        while (node != NIL) {
+            int v = keys[node];
+            if (v == k)
+                return node;
+            if (v < k)
+                node = right[node];
+            else
+                node = left[node];
+        }
+        return NIL;
+    }
+
+    public boolean contains(int key) {
+        return this.getNode(key) != NIL;
+    }
+
+    /**
+     * 向红黑树中加入值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#add(int)} 相同。
+     * @param key key
+     */
+    public void add(int key) {
+        int t = this.root;
+        if (t == NIL) {
+            this.root = this.newNode(NIL, key);
+            this.size = 1;
+        } else {
+            int p;
+            do {
+                p = t;
+                int v = keys[t];
+                if (key == v) {
+                    return;
+                } else if (key < v) {
+                    t = left[t];
+                } else {
+                    t = right[t];
+                }
+            } while (t != NIL);
+
+            int e = this.newNode(p, key);
+            if (key < keys[p]) {
+                left[p] = e;
+            } else {
+                right[p] = e;
+            }
+
+            this.fixAfterInsertion(e);
+            ++this.size;
+        }
+    }
+
+    /**
+     * 在红黑树中删除值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#remove(int)} 相同。
+     * @param key key
+     */
+    public void remove(int key) {
+        int p = this.getNode(key);
+        if (p != NIL) {
+            --this.size;
+            int replacement;
+            if (left[p] != NIL && right[p] != NIL) { // 有两个后代，把删除操作下放到后继节点
+                replacement = successor(p);
+                keys[p] = keys[replacement];
+                p = replacement;
+            }
+
+            replacement = left[p] != NIL ? left[p] : right[p];
+            if (replacement != NIL) { // 只有一个后代，用后代替换p
+                int pp = parent[p];
+                parent[replacement] = pp;
+                if (pp == NIL) {
+                    this.root = replacement;
+                } else if (p == left[pp]) {
+                    left[pp] = replacement;
+                } else {
+                    right[pp] = replacement;
+                }
+
+                boolean black = colorOf(p);
+                this.freeNode(p);
+                if (black) {
+                    this.fixAfterDeletion(replacement);
+                }
+            } else if (parent[p] == NIL) { // 删除的是没有后代的root
+                this.root = NIL;
+                this.freeNode(p);
+            } else { // 删除的是叶子节点，先修复，再脱离
+                if (colorOf(p)) {
+                    this.fixAfterDeletion(p);
+                }
+                int pp = parent[p];
+                if (pp != NIL) {
+                    if (p == left[pp]) {
+                        left[pp] = NIL;
+                    } else if (p == right[pp]) {
+                        right[pp] = NIL;
+                    }
+                }
+                this.freeNode(p);
+            }
+        }
+    }
+
+    /**
+     * 清空红黑树。已分配的数组会被保留，供之后的插入复用。
+     */
+    public void clear() {
+        this.size = 0;
+        this.root = NIL;
+        this.used = 0;
+        this.freeHead = NIL;
+    }
+
+    /**
+     * 分配一个槽位作为新节点，颜色为黑色。优先复用空闲链表中的槽位，否则使用高水位线处的槽位，必要时扩容。
+     */
+    private int newNode(int p, int key) {
+        int n;
+        if (freeHead != NIL) {
+            n = freeHead;
+            freeHead = left[n];
+        } else {
+            if (used == keys.length) {
+                this.grow();
+            }
+            n = used++;
+        }
+        keys[n] = key;
+        left[n] = NIL;
+        right[n] = NIL;
+        parent[n] = p;
+        setColor(n, true);
+        return n;
+    }
+
+    /**
+     * 将节点n的槽位放回空闲链表。
+     */
+    private void freeNode(int n) {
+        right[n] = parent[n] = NIL;
+        setColor(n, true);
+        left[n] = freeHead;
+        freeHead = n;
+    }
+
+    /**
+     * 容量翻倍。
+     */
+    private void grow() {
+        int oldCap = keys.length;
+        int newCap = oldCap + Math.max(oldCap, DEFAULT_CAPACITY);
+        if (newCap < 0) {
+            newCap = Integer.MAX_VALUE - 8;
+            if (newCap <= oldCap) {
+                throw new OutOfMemoryError("Tree is too large");
+            }
+        }
+        keys = Arrays.copyOf(keys, newCap);
+        left = Arrays.copyOf(left, newCap);
+        right = Arrays.copyOf(right, newCap);
+        parent = Arrays.copyOf(parent, newCap);
+        red = Arrays.copyOf(red, (newCap + 63) >>> 6);
+    }
+
+    /**
+     * 寻找以t为中，中序遍历的下一个节点。
+     * @param t 当前节点
+     * @return 下一个节点，没有则返回NIL。
+     */
+    int successor(int t) {
+        if (t == NIL) {
+            return NIL;
+        } else {
+            int p;
+            if (right[t] != NIL) {
+                for (p = right[t]; left[p] != NIL; p = left[p]) {
+                }
+
+                return p;
+            } else {
+                p = parent[t];
+
+                for (int ch = t; p != NIL && ch == right[p]; p = parent[p]) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    /**
+     * 寻找以t为中，中序遍历的上一个节点。
+     * @param t 当前节点
+     * @return 上一个节点，没有则返回NIL。
+     */
+    int predecessor(int t) {
+        if (t == NIL) {
+            return NIL;
+        } else {
+            int p;
+            if (left[t] != NIL) {
+                for (p = left[t]; right[p] != NIL; p = right[p]) {
+                }
+
+                return p;
+            } else {
+                p = parent[t];
+
+                for (int ch = t; p != NIL && ch == left[p]; p = parent[p]) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    /**
+     * 判断节点p的颜色。如果p==NIL，则默认为黑色
+     * @return true表示黑色
+     */
+    private boolean colorOf(int p) {
+        return p == NIL || (red[p >>> 6] & (1L << p)) == 0;
+    }
+
+    private int parentOf(int p) {
+        return p == NIL ? NIL : parent[p];
+    }
+
+    private void setColor(int p, boolean black) {
+        if (p != NIL) {
+            if (black) {
+                red[p >>> 6] &= ~(1L << p);
+            } else {
+                red[p >>> 6] |= 1L << p;
+            }
+        }
+    }
+
+    private int leftOf(int p) {
+        return p == NIL ? NIL : left[p];
+    }
+
+    private int rightOf(int p) {
+        return p == NIL ? NIL : right[p];
+    }
+
+    /**
+     * 对节点p和p.right进行左旋操作，参见 RedBlackTreeFromJDK.rotateLeft
+     */
+    private void rotateLeft(int p) {
+        if (p != NIL) {
+            int r = right[p];
+            right[p] = left[r];
+            if (left[r] != NIL) {
+                parent[left[r]] = p;
+            }
+
+            int pp = parent[p];
+            parent[r] = pp;
+            if (pp == NIL) {
+                this.root = r;
+            } else if (left[pp] == p) {
+                left[pp] = r;
+            } else {
+                right[pp] = r;
+            }
+
+            left[r] = p;
+            parent[p] = r;
+        }
+    }
+
+    /**
+     * 对节点p和p.left进行右旋操作，参见 RedBlackTreeFromJDK.rotateRight
+     */
+    private void rotateRight(int p) {
+        if (p != NIL) {
+            int l = left[p];
+            left[p] = right[l];
+            if (right[l] != NIL) {
+                parent[right[l]] = p;
+            }
+
+            int pp = parent[p];
+            parent[l] = pp;
+            if (pp == NIL) {
+                this.root = l;
+            } else if (right[pp] == p) {
+                right[pp] = l;
+            } else {
+                left[pp] = l;
+            }
+
+            right[l] = p;
+            parent[p] = l;
+        }
+    }
+
+    private void fixAfterInsertion(int x) {
+        setColor(x, false);
+
+        while (x != NIL && x != this.root && !colorOf(parent[x])) {
+            int y;
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                y = rightOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) { // 2.3.1 叔叔节点是红色，变色后向上递归
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) { // 2.3.2.1 折线形，先转为直线形
+                        x = parentOf(x);
+                        this.rotateLeft(x);
+                    }
+                    // 2.3.2.2 直线形
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                y = leftOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) {
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        this.rotateRight(x);
+                    }
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        setColor(this.root, true);
+    }
+
+    private void fixAfterDeletion(int x) {
+        while (x != this.root && colorOf(x)) {
+            int bro;
+            if (x == leftOf(parentOf(x))) {
+                bro = rightOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateLeft(parentOf(x));
+                    bro = rightOf(parentOf(x));
+                }
+                if (colorOf(leftOf(bro)) && colorOf(rightOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(bro))) {
+                        setColor(leftOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateRight(bro);
+                        bro = rightOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(rightOf(bro), true);
+                    this.rotateLeft(parentOf(x));
+                    x = this.root;
+                }
+            } else {
+                bro = leftOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateRight(parentOf(x));
+                    bro = leftOf(parentOf(x));
+                }
+                if (colorOf(rightOf(bro)) && colorOf(leftOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(bro))) {
+                        setColor(rightOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateLeft(bro);
+                        bro = leftOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(leftOf(bro), true);
+                    this.rotateRight(parentOf(x));
+                    x = this.root;
+                }
+            }
+        }
+        setColor(x, true);
+    }
+
+
+    /***************************************************************************************************************/
+    /**
+     * 返回中序遍历的字符串，格式与 {@link RedBlackTreeFromJDK#strValues()} 相同。
+     */
+    public String strValues() {
+        if (this.root == NIL) {
+            return "[]";
+        }
+        int node = this.root;
+        while (left[node] != NIL)
+            node = left[node];
+        StringBuilder sb = new StringBuilder("[");
+        while (node != NIL) {
+            sb.append(keys[node]).append(",");
+            node = successor(node);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
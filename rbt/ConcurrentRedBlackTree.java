@@ -0,0 +1,153 @@
+package rbt;
+
+
+import java.util.OptionalInt;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+
+/**
+ * 线程安全的红黑树外观，内部是一棵 {@link RedBlackTreeFromJDK} 加一把 {@link StampedLock}。
+ * 1、contains、floor/ceiling/lower/higher和size这些只读操作先使用乐观读：不加锁直接从root下降，
+ *    结束后用validate检查期间是否有写操作发生。没有写入时读操作之间完全不竞争；如果有写入就退回到读锁重新执行一次。
+ *    乐观的下降可能读到旋转过程中的中间状态，甚至是环，所以下降的步数有上限，超出上限同样退回到读锁。
+ * 2、add、remove等写操作获取写锁，与其他写操作和悲观读互斥，并使正在进行的乐观读失效。
+ * 3、forEach需要遍历整棵树，时间较长，直接获取读锁。
+ */
+public class ConcurrentRedBlackTree {
+
+    final RedBlackTreeFromJDK tree;
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentRedBlackTree() {
+        this(false);
+    }
+
+    /**
+     * @param orderStatistics 底层的树是否开启顺序统计
+     */
+    public ConcurrentRedBlackTree(boolean orderStatistics) {
+        this.tree = new RedBlackTreeFromJDK(orderStatistics);
+    }
+
+    public boolean contains(int key) {
+        return this.find(key, RedBlackTreeFromJDK.EXACT).isPresent();
+    }
+
+    public OptionalInt floor(int key) {
+        return this.find(key, RedBlackTreeFromJDK.FLOOR);
+    }
+
+    public OptionalInt ceiling(int key) {
+        return this.find(key, RedBlackTreeFromJDK.CEILING);
+    }
+
+    public OptionalInt lower(int key) {
+        return this.find(key, RedBlackTreeFromJDK.LOWER);
+    }
+
+    public OptionalInt higher(int key) {
+        return this.find(key, RedBlackTreeFromJDK.HIGHER);
+    }
+
+    /**
+     * 先乐观读，用有步数上限的 {@link RedBlackTreeFromJDK#findBounded(int, int)} 下降，并在validate之前读出节点的值
+     * （之后的删除可能把别的值复制到这个节点上）。期间有写操作或者超出步数时，退回到读锁重新执行。
+     */
+    private OptionalInt find(int key, int relation) {
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            Node p = this.tree.findBounded(key, relation);
+            if (p != RedBlackTreeFromJDK.STEPS_EXCEEDED) {
+                OptionalInt result = p == null ? OptionalInt.empty() : OptionalInt.of(p.val);
+                if (this.lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+        stamp = this.lock.readLock();
+        try {
+            Node p = this.tree.findBounded(key, relation);
+            return p == null ? OptionalInt.empty() : OptionalInt.of(p.val);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = this.lock.tryOptimisticRead();
+        int result = this.tree.size();
+        if (!this.lock.validate(stamp)) {
+            stamp = this.lock.readLock();
+            try {
+                result = this.tree.size();
+            } finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    public void add(int key) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.tree.add(key);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(int key) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.tree.remove(key);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 见 {@link RedBlackTreeFromJDK#addAll(int[])}。
+     */
+    public int addAll(int[] keys) {
+        long stamp = this.lock.writeLock();
+        try {
+            return this.tree.addAll(keys);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 见 {@link RedBlackTreeFromJDK#removeRange(int, int)}。
+     */
+    public int removeRange(int lo, int hi) {
+        long stamp = this.lock.writeLock();
+        try {
+            return this.tree.removeRange(lo, hi);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = this.lock.writeLock();
+        try {
+            this.tree.clear();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 在读锁保护下按升序遍历所有值。action中不能再调用本对象的写操作，否则会死锁。
+     * @param action 对每个值执行的操作
+     */
+    public void forEach(IntConsumer action) {
+        long stamp = this.lock.readLock();
+        try {
+            this.tree.forEach(action);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,654 @@
+package rbt;
+
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.OptionalDouble;
+import java.util.PrimitiveIterator;
+import java.util.function.DoubleConsumer;
+
+/*
+ * 本文件由 rbt.gen.KeyTreeGenerator 根据 rbt/gen/KeyRedBlackTree.java.template 生成，请勿手工修改。
+ */
+
+/**
+ * 键类型为 double 的红黑树，add/remove/contains/导航查询/遍历的语义与 {@link RedBlackTreeFromJDK} 完全相同，不装箱。
+ * 各种情况的详细分析参见 {@link RedBlackTreeFromJDK} 中的注释。
+ * 键的顺序由 Double.compare 定义，与 TreeSet&lt;Double&gt; 的顺序一致。
+ */
+public class DoubleRedBlackTree {
+
+    /**
+     * 红黑树节点，与 {@link Node} 相同，只是键的类型不同。
+     */
+    static final class Entry {
+        Entry parent;
+        Entry left;
+        Entry right;
+        double val;
+        boolean isBlack = true;
+
+        Entry(Entry p, double v) {
+            parent = p;
+            val = v;
+        }
+    }
+
+    private Entry root;
+    private int size = 0;
+    /**
+     * 缓存的最左节点，即最小值所在的节点。树为空时为null。
+     */
+    private Entry first;
+    /**
+     * 缓存的最右节点，即最大值所在的节点。树为空时为null。
+     */
+    private Entry last;
+    /**
+     * 结构修改（增删节点）的次数，用于迭代器的快速失败检测。
+     */
+    private int modCount = 0;
+
+    public DoubleRedBlackTree() {}
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 返回包含值k的节点
+     * @param k k
+     * @return 如果包含，返回节点；否则，返回null。
+     */
+    private Entry getEntry(double k) {
+        Entry node = root;
+        while (node != null) {
+            int cmp = Double.compare(k, node.val);
+            if (cmp == 0)
+                return node;
+            if (cmp > 0)
+                node = node.right;
+            else
+                node = node.left;
+        }
+        return null;
+    }
+
+    public boolean contains(double key) {
+        return this.getEntry(key) != null;
+    }
+
+    /**
+     * 返回值小于等于k的节点中值最大的节点，只做一次从root到叶子的下降。
+     */
+    private Entry getFloorEntry(double k) {
+        Entry node = root;
+        Entry candidate = null;
+        while (node != null) {
+            int cmp = Double.compare(k, node.val);
+            if (cmp == 0)
+                return node;
+            if (cmp > 0) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值大于等于k的节点中值最小的节点。
+     */
+    private Entry getCeilingEntry(double k) {
+        Entry node = root;
+        Entry candidate = null;
+        while (node != null) {
+            int cmp = Double.compare(k, node.val);
+            if (cmp == 0)
+                return node;
+            if (cmp < 0) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值严格小于k的节点中值最大的节点。
+     */
+    private Entry getLowerEntry(double k) {
+        Entry node = root;
+        Entry candidate = null;
+        while (node != null) {
+            if (Double.compare(node.val, k) < 0) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值严格大于k的节点中值最小的节点。
+     */
+    private Entry getHigherEntry(double k) {
+        Entry node = root;
+        Entry candidate = null;
+        while (node != null) {
+            if (Double.compare(node.val, k) > 0) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    private static OptionalDouble valueOf(Entry p) {
+        return p == null ? OptionalDouble.empty() : OptionalDouble.of(p.val);
+    }
+
+    /**
+     * @return 小于等于key的最大值；不存在时返回OptionalDouble.empty()。
+     */
+    public OptionalDouble floor(double key) {
+        return valueOf(this.getFloorEntry(key));
+    }
+
+    /**
+     * @return 大于等于key的最小值；不存在时返回OptionalDouble.empty()。
+     */
+    public OptionalDouble ceiling(double key) {
+        return valueOf(this.getCeilingEntry(key));
+    }
+
+    /**
+     * @return 严格小于key的最大值；不存在时返回OptionalDouble.empty()。
+     */
+    public OptionalDouble lower(double key) {
+        return valueOf(this.getLowerEntry(key));
+    }
+
+    /**
+     * @return 严格大于key的最小值；不存在时返回OptionalDouble.empty()。
+     */
+    public OptionalDouble higher(double key) {
+        return valueOf(this.getHigherEntry(key));
+    }
+
+    /**
+     * 返回最小值。树为空时抛出NoSuchElementException。
+     */
+    public double first() {
+        if (this.first == null) {
+            throw new NoSuchElementException();
+        }
+        return this.first.val;
+    }
+
+    /**
+     * 返回最大值。树为空时抛出NoSuchElementException。
+     */
+    public double last() {
+        if (this.last == null) {
+            throw new NoSuchElementException();
+        }
+        return this.last.val;
+    }
+
+    /**
+     * 向红黑树中加入值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#add(int)} 相同。
+     * @param key key
+     */
+    public void add(double key) {
+        Entry t = this.root;
+        if (t == null) {
+            this.root = this.first = this.last = new Entry(null, key);
+            this.size = 1;
+            ++this.modCount;
+        } else {
+            Entry parent;
+            int cmp;
+            if (Double.compare(key, this.last.val) > 0) {
+                // 比最大值还大，直接挂在最右节点下面，见 RedBlackTreeFromJDK#add(int)
+                parent = this.last;
+                cmp = 1;
+            } else if (Double.compare(key, this.first.val) < 0) {
+                parent = this.first;
+                cmp = -1;
+            } else {
+                do {
+                    parent = t;
+                    cmp = Double.compare(key, t.val);
+                    if (cmp == 0) {
+                        return;
+                    } else if (cmp < 0) {
+                        t = t.left;
+                    } else {
+                        t = t.right;
+                    }
+                } while (t != null);
+            }
+
+            Entry e = new Entry(parent, key);
+            if (cmp < 0) {
+                parent.left = e;
+                if (parent == this.first) {
+                    this.first = e;
+                }
+            } else {
+                parent.right = e;
+                if (parent == this.last) {
+                    this.last = e;
+                }
+            }
+
+            this.fixAfterInsertion(e);
+            ++this.size;
+            ++this.modCount;
+        }
+    }
+
+    /**
+     * 在红黑树中删除值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#remove(int)} 相同。
+     * @param key key
+     */
+    public void remove(double key) {
+        Entry p = this.getEntry(key);
+        if (p != null) {
+            this.deleteEntry(p);
+        }
+    }
+
+    private void deleteEntry(Entry p) {
+        --this.size;
+        ++this.modCount;
+        Entry replacement;
+        if (p.left != null && p.right != null) { // 有两个后代，把删除操作下放到后继节点
+            replacement = successor(p);
+            if (replacement == this.last) {
+                this.last = p;
+            }
+            p.val = replacement.val;
+            p = replacement;
+        } else {
+            if (p == this.first) {
+                this.first = successor(p);
+            }
+            if (p == this.last) {
+                this.last = predecessor(p);
+            }
+        }
+
+        replacement = p.left != null ? p.left : p.right;
+        if (replacement != null) { // 只有一个后代，用后代替换p
+            replacement.parent = p.parent;
+            if (p.parent == null) {
+                this.root = replacement;
+            } else if (p == p.parent.left) {
+                p.parent.left = replacement;
+            } else {
+                p.parent.right = replacement;
+            }
+
+            p.left = p.right = p.parent = null;
+            if (p.isBlack) {
+                this.fixAfterDeletion(replacement);
+            }
+        } else if (p.parent == null) { // 删除的是没有后代的root
+            this.root = null;
+        } else { // 删除的是叶子节点，先修复，再脱离
+            if (p.isBlack) {
+                this.fixAfterDeletion(p);
+            }
+            if (p.parent != null) {
+                if (p == p.parent.left) {
+                    p.parent.left = null;
+                } else if (p == p.parent.right) {
+                    p.parent.right = null;
+                }
+
+                p.parent = null;
+            }
+        }
+    }
+
+    /**
+     * 清空红黑树
+     */
+    public void clear() {
+        this.size = 0;
+        this.root = null;
+        this.first = null;
+        this.last = null;
+        ++this.modCount;
+    }
+
+    /**
+     * 以t为中，中序遍历的下一个节点。
+     */
+    static Entry successor(Entry t) {
+        if (t == null) {
+            return null;
+        } else {
+            Entry p;
+            if (t.right != null) {
+                for (p = t.right; p.left != null; p = p.left) {
+                }
+
+                return p;
+            } else {
+                p = t.parent;
+
+                for (Entry ch = t; p != null && ch == p.right; p = p.parent) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    /**
+     * 以t为中，中序遍历的上一个节点。
+     */
+    static Entry predecessor(Entry t) {
+        if (t == null) {
+            return null;
+        } else {
+            Entry p;
+            if (t.left != null) {
+                for (p = t.left; p.right != null; p = p.right) {
+                }
+
+                return p;
+            } else {
+                p = t.parent;
+
+                for (Entry ch = t; p != null && ch == p.left; p = p.parent) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    private static boolean colorOf(Entry p) {
+        return p == null ? true : p.isBlack;
+    }
+
+    private static Entry parentOf(Entry p) {
+        return p == null ? null : p.parent;
+    }
+
+    private static void setColor(Entry p, boolean c) {
+        if (p != null) {
+            p.isBlack = c;
+        }
+    }
+
+    private static Entry leftOf(Entry p) {
+        return p == null ? null : p.left;
+    }
+
+    private static Entry rightOf(Entry p) {
+        return p == null ? null : p.right;
+    }
+
+    private void rotateLeft(Entry p) {
+        if (p != null) {
+            Entry r = p.right;
+            p.right = r.left;
+            if (r.left != null) {
+                r.left.parent = p;
+            }
+
+            r.parent = p.parent;
+            if (p.parent == null) {
+                this.root = r;
+            } else if (p.parent.left == p) {
+                p.parent.left = r;
+            } else {
+                p.parent.right = r;
+            }
+
+            r.left = p;
+            p.parent = r;
+        }
+    }
+
+    private void rotateRight(Entry p) {
+        if (p != null) {
+            Entry l = p.left;
+            p.left = l.right;
+            if (l.right != null) {
+                l.right.parent = p;
+            }
+
+            l.parent = p.parent;
+            if (p.parent == null) {
+                this.root = l;
+            } else if (p.parent.right == p) {
+                p.parent.right = l;
+            } else {
+                p.parent.left = l;
+            }
+
+            l.right = p;
+            p.parent = l;
+        }
+    }
+
+    private void fixAfterInsertion(Entry x) {
+        x.isBlack = false;
+
+        while (x != null && x != this.root && !x.parent.isBlack) {
+            Entry y;
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                y = rightOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) { // 2.3.1 叔叔节点是红色，变色后向上递归
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) { // 2.3.2.1 折线形，先转为直线形
+                        x = parentOf(x);
+                        this.rotateLeft(x);
+                    }
+                    // 2.3.2.2 直线形
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                y = leftOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) {
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        this.rotateRight(x);
+                    }
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        this.root.isBlack = true;
+    }
+
+    private void fixAfterDeletion(Entry x) {
+        while (x != this.root && colorOf(x)) {
+            Entry bro;
+            if (x == leftOf(parentOf(x))) {
+                bro = rightOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateLeft(parentOf(x));
+                    bro = rightOf(parentOf(x));
+                }
+                if (colorOf(leftOf(bro)) && colorOf(rightOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(bro))) {
+                        setColor(leftOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateRight(bro);
+                        bro = rightOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(rightOf(bro), true);
+                    this.rotateLeft(parentOf(x));
+                    x = this.root;
+                }
+            } else {
+                bro = leftOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateRight(parentOf(x));
+                    bro = leftOf(parentOf(x));
+                }
+                if (colorOf(rightOf(bro)) && colorOf(leftOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(bro))) {
+                        setColor(rightOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateLeft(bro);
+                        bro = leftOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(leftOf(bro), true);
+                    this.rotateRight(parentOf(x));
+                    x = this.root;
+                }
+            }
+        }
+        setColor(x, true);
+    }
+
+    /**
+     * 按升序遍历所有值，不装箱。遍历过程中如果树被修改，抛出ConcurrentModificationException。
+     */
+    public void forEach(DoubleConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Entry e = this.first; e != null; e = successor(e)) {
+            action.accept(e.val);
+            if (expectedModCount != this.modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * 按降序遍历所有值。
+     */
+    public void forEachDescending(DoubleConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Entry e = this.last; e != null; e = predecessor(e)) {
+            action.accept(e.val);
+            if (expectedModCount != this.modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * @return 按升序返回值的原始类型迭代器。
+     */
+    public PrimitiveIterator.OfDouble iterator() {
+        return new ValueIterator(this.first, true);
+    }
+
+    /**
+     * @return 按降序返回值的原始类型迭代器。
+     */
+    public PrimitiveIterator.OfDouble descendingIterator() {
+        return new ValueIterator(this.last, false);
+    }
+
+    /**
+     * 中序迭代器，支持remove()，见 RedBlackTreeFromJDK.ValueIterator。
+     */
+    private final class ValueIterator implements PrimitiveIterator.OfDouble {
+        private final boolean ascending;
+        private Entry next;
+        private Entry lastReturned;
+        private int expectedModCount;
+
+        ValueIterator(Entry first, boolean ascending) {
+            this.ascending = ascending;
+            this.next = first;
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public double nextDouble() {
+            Entry e = this.next;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            this.next = this.ascending ? successor(e) : predecessor(e);
+            this.lastReturned = e;
+            return e.val;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (this.ascending && this.lastReturned.left != null && this.lastReturned.right != null) {
+                this.next = this.lastReturned;
+            }
+            deleteEntry(this.lastReturned);
+            this.expectedModCount = modCount;
+            this.lastReturned = null;
+        }
+    }
+
+
+    /***************************************************************************************************************/
+    /**
+     * 返回中序遍历的字符串，格式与 {@link RedBlackTreeFromJDK#strValues()} 相同。
+     */
+    public String strValues() {
+        StringBuilder sb = new StringBuilder("[");
+        for (Entry node = this.first; node != null; node = successor(node)) {
+            sb.append(node.val).append(",");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
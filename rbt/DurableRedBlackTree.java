@@ -0,0 +1,135 @@
+package rbt;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.OptionalInt;
+
+/**
+ * 能在崩溃后恢复的红黑树：目录中保存一份快照（{@link RedBlackTreeFromJDK#writeTo}的格式）和一份 {@link WriteAheadLog}。
+ * 1、每次add、remove先追加一条日志记录，追加成功后才修改内存中的树，然后等待这条记录随组提交落盘后再返回；
+ *    多个线程的提交共享同一次fsync，所以等待落盘时不持有树的锁；
+ * 2、{@link #checkpoint()} 把当前内容写成新快照（先写临时文件再原子替换，并把目录也刷盘），然后截断日志；
+ * 3、打开时先加载快照，再重放日志。日志中的add/remove按顺序作用在同一个键上，最后一次操作决定结果，
+ *    所以在替换快照之后、截断日志之前崩溃也没有关系：重放已经包含在快照中的记录得到的结果相同。
+ * 读操作可能看到已经修改但还没有落盘的值，和大多数组提交的实现一样。
+ */
+public class DurableRedBlackTree implements Closeable {
+
+    static final String SNAPSHOT_FILE = "tree.snapshot";
+    static final String LOG_FILE = "tree.wal";
+
+    private final RedBlackTreeFromJDK tree = new RedBlackTreeFromJDK();
+    private final Path dir;
+    private final WriteAheadLog log;
+
+    private DurableRedBlackTree(Path dir, long maxLatencyNanos) throws IOException {
+        this.dir = dir;
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                this.tree.readFrom(ch);
+            }
+        }
+        this.log = WriteAheadLog.open(dir.resolve(LOG_FILE), maxLatencyNanos, this.tree::add, this.tree::remove);
+    }
+
+    /**
+     * 打开目录dir中的树，目录不存在时创建。
+     * @param dir 存放快照和日志的目录
+     * @param maxLatencyNanos 组提交的延迟预算，见 {@link WriteAheadLog#open}
+     * @return 树，使用完毕后必须close
+     * @throws IOException 快照或日志损坏，或者读写失败
+     */
+    public static DurableRedBlackTree open(Path dir, long maxLatencyNanos) throws IOException {
+        Files.createDirectories(dir);
+        return new DurableRedBlackTree(dir, maxLatencyNanos);
+    }
+
+    public synchronized int size() {
+        return this.tree.size();
+    }
+
+    public synchronized boolean contains(int key) {
+        return this.tree.contains(key);
+    }
+
+    public synchronized OptionalInt floor(int key) {
+        return this.tree.floor(key);
+    }
+
+    public synchronized OptionalInt ceiling(int key) {
+        return this.tree.ceiling(key);
+    }
+
+    /**
+     * 加入值key，返回时这次修改已经落盘。
+     * @param key key
+     * @throws IOException 写日志失败
+     */
+    public void add(int key) throws IOException {
+        long seq;
+        synchronized (this) {
+            if (this.tree.contains(key)) {
+                // 没有修改，但key可能是由另一个线程刚刚加入、还没有落盘的，所以也要等待之前的记录
+                seq = this.log.lastSequence();
+            } else {
+                // 先写日志，写失败时树保持不变
+                seq = this.log.append(WriteAheadLog.ADD, key);
+                this.tree.add(key);
+            }
+        }
+        this.log.sync(seq);
+    }
+
+    /**
+     * 删除值key，返回时这次修改已经落盘。
+     * @param key key
+     * @throws IOException 写日志失败
+     */
+    public void remove(int key) throws IOException {
+        long seq;
+        synchronized (this) {
+            if (!this.tree.contains(key)) {
+                seq = this.log.lastSequence();
+            } else {
+                seq = this.log.append(WriteAheadLog.REMOVE, key);
+                this.tree.remove(key);
+            }
+        }
+        this.log.sync(seq);
+    }
+
+    /**
+     * 写入新快照并截断日志。期间阻塞所有读写。
+     * @throws IOException 写快照或截断日志失败；失败时旧的快照和日志保持有效
+     */
+    public synchronized void checkpoint() throws IOException {
+        Path tmp = this.dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.tree.writeTo(ch);
+            ch.force(true);
+        }
+        Files.move(tmp, this.dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        // 改名本身记录在目录里，目录落盘之前截断日志的话，崩溃后可能看到旧快照和空日志
+        try (FileChannel d = FileChannel.open(this.dir, StandardOpenOption.READ)) {
+            d.force(true);
+        }
+        this.log.truncate();
+    }
+
+    /**
+     * 把剩余的日志记录刷盘并关闭。不会自动做检查点。
+     */
+    @Override
+    public void close() throws IOException {
+        this.log.close();
+    }
+}
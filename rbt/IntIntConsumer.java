@@ -0,0 +1,10 @@
+package rbt;
+
+
+/**
+ * 接受一对int键值的回调，用于 {@link IntIntSortedMap#forEach(IntIntConsumer)}，避免装箱。
+ */
+@FunctionalInterface
+public interface IntIntConsumer {
+    void accept(int key, int value);
+}
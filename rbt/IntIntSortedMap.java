@@ -0,0 +1,203 @@
+package rbt;
+
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/*
+ * 本文件由 rbt.gen.KeyTreeGenerator 根据 rbt/gen/IntValueSortedMap.java.template 生成，请勿手工修改。
+ */
+
+/**
+ * 键为int、值为int的有序映射。节点在val旁边直接保存一个int类型的值，每个条目只有一个对象，没有装箱：
+ * TreeMap&lt;Integer, Integer&gt;的每个条目需要Entry、键、值三个对象。
+ * 结构上的操作（remove、removeRange、split、join、集合运算、顺序统计等）都继承自 {@link RedBlackTreeFromJDK}，
+ * 其中需要移动或重建节点的地方会保留节点上的值；通过add、addAll、bulkLoad加入的键的值为0。
+ */
+public class IntIntSortedMap extends RedBlackTreeFromJDK {
+
+    /**
+     * 带值的节点。开启顺序统计时使用WeightedEntry，两者只有父类不同，值通过 {@link #valueOf(Node)} 和
+     * {@link #setValue(Node, int)} 读写。
+     */
+    static final class Entry extends Node {
+        int value;
+
+        Entry(Node parent, int key) {
+            super(parent, null, null, key, true);
+        }
+
+        @Override
+        void copyFrom(Node n) {
+            super.copyFrom(n);
+            this.value = ((Entry) n).value;
+        }
+    }
+
+    static final class WeightedEntry extends WeightedNode {
+        int value;
+
+        WeightedEntry(Node parent, int key) {
+            super(parent, null, null, key, true);
+        }
+
+        @Override
+        void copyFrom(Node n) {
+            super.copyFrom(n);
+            this.value = ((WeightedEntry) n).value;
+        }
+    }
+
+    static int valueOf(Node n) {
+        return n instanceof Entry ? ((Entry) n).value : ((WeightedEntry) n).value;
+    }
+
+    static void setValue(Node n, int value) {
+        if (n instanceof Entry) {
+            ((Entry) n).value = value;
+        } else {
+            ((WeightedEntry) n).value = value;
+        }
+    }
+
+    public IntIntSortedMap() {
+        this(false);
+    }
+
+    /**
+     * @param orderStatistics 为true时维护子树大小，见 {@link RedBlackTreeFromJDK#RedBlackTreeFromJDK(boolean)}。
+     */
+    public IntIntSortedMap(boolean orderStatistics) {
+        super(orderStatistics);
+    }
+
+    @Override
+    Node newNode(Node parent, int key) {
+        return this.hasOrderStatistics() ? new WeightedEntry(parent, key) : new Entry(parent, key);
+    }
+
+    @Override
+    RedBlackTreeFromJDK newEmptyTree() {
+        return new IntIntSortedMap(this.hasOrderStatistics());
+    }
+
+    public boolean containsKey(int key) {
+        return this.contains(key);
+    }
+
+    /**
+     * 把key对应的值设为value。key不存在时插入。
+     * @param key key
+     * @param value value
+     */
+    public void put(int key, int value) {
+        setValue(this.addNode(key), value);
+    }
+
+    /**
+     * @param key key
+     * @param defaultValue key不存在时返回的值
+     * @return key对应的值
+     */
+    public int get(int key, int defaultValue) {
+        Node p = this.getNode(key);
+        return p == null ? defaultValue : valueOf(p);
+    }
+
+    /**
+     * 把key对应的值加上delta，key不存在时视为0。只查找一次，适合计数和累加。
+     * @param key key
+     * @param delta 增量
+     * @return 相加后的值
+     */
+    public int addTo(int key, int delta) {
+        Node e = this.addNode(key);
+        int value = valueOf(e) + delta;
+        setValue(e, value);
+        return value;
+    }
+
+    /**
+     * 按键的升序遍历所有条目。
+     */
+    public void forEach(IntIntConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Node e = this.getFirstNode(); e != null; e = successor(e)) {
+            action.accept(e.val, valueOf(e));
+            if (this.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * @return 按键的升序遍历条目的游标，初始位于第一个条目之前。
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * 条目游标：advance()移动到下一个条目，之后用key()、value()读取当前条目，用setValue修改它的值，
+     * 整个遍历过程只分配这一个对象。
+     */
+    public final class Cursor {
+        private Node next = IntIntSortedMap.this.getFirstNode();
+        private Node current;
+        private int expectedModCount = IntIntSortedMap.this.modCount;
+
+        private Cursor() {}
+
+        /**
+         * @return 是否还有条目。为true时游标移动到该条目上。
+         */
+        public boolean advance() {
+            if (IntIntSortedMap.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (this.next == null) {
+                this.current = null;
+                return false;
+            }
+            this.current = this.next;
+            this.next = successor(this.next);
+            return true;
+        }
+
+        public int key() {
+            return this.entry().val;
+        }
+
+        public int value() {
+            return valueOf(this.entry());
+        }
+
+        public void setValue(int value) {
+            IntIntSortedMap.setValue(this.entry(), value);
+        }
+
+        /**
+         * 删除当前条目，游标停在两个条目之间，之后需要再次调用advance()。
+         */
+        public void remove() {
+            Node e = this.entry();
+            if (IntIntSortedMap.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // 有两个孩子的节点被删除时，后继节点的内容会被复制到该节点上，所以next要退回到它
+            if (e.left != null && e.right != null) {
+                this.next = e;
+            }
+            IntIntSortedMap.this.deleteEntry(e);
+            this.expectedModCount = IntIntSortedMap.this.modCount;
+            this.current = null;
+        }
+
+        private Node entry() {
+            if (this.current == null) {
+                throw new NoSuchElementException();
+            }
+            return this.current;
+        }
+    }
+}
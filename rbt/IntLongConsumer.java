@@ -0,0 +1,10 @@
+package rbt;
+
+
+/**
+ * 接受int键和long值的回调，用于 {@link IntLongSortedMap#forEach(IntLongConsumer)}，避免装箱。
+ */
+@FunctionalInterface
+public interface IntLongConsumer {
+    void accept(int key, long value);
+}
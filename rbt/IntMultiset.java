@@ -0,0 +1,236 @@
+package rbt;
+
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.stream.IntStream;
+
+/**
+ * 有序的int多重集合。每个不同的值只占一个节点，节点中记录该值出现的次数，重复的值不会产生新节点。
+ * 1、add使出现次数+1，值不存在时插入一个次数为1的节点；remove使出现次数-1，减到0时才删除节点；
+ * 2、子树大小（WeightedNode.weight）累加的是出现次数而不是节点数目，所以select、rank、countInRange都按出现次数计算，
+ *    {@link #totalSize()}为所有出现次数之和，而 {@link #size()} 仍然是不同值的个数；
+ * 3、removeRange、removeAll(int[])、split、join、集合运算等继承的操作按值进行：一个值被删除时它的全部出现次数一起删除，
+ *    并集、交集保留第一个参数中的出现次数。addAll与逐个add相同，每个值（包括批次中重复的值）使出现次数+1；
+ *    bulkLoad只能在空树上调用，加入的值出现次数为1。
+ * 顺序统计总是开启的。
+ */
+public class IntMultiset extends RedBlackTreeFromJDK {
+
+    /**
+     * 带出现次数的节点。
+     */
+    static final class CountNode extends WeightedNode {
+        int count = 1;
+
+        CountNode(Node parent, int key) {
+            super(parent, null, null, key, true);
+        }
+
+        @Override
+        void copyFrom(Node n) {
+            super.copyFrom(n);
+            this.count = ((CountNode) n).count;
+        }
+
+        @Override
+        int multiplicity() {
+            return this.count;
+        }
+    }
+
+    public IntMultiset() {
+        super(true);
+    }
+
+    @Override
+    Node newNode(Node parent, int key) {
+        return new CountNode(parent, key);
+    }
+
+    @Override
+    RedBlackTreeFromJDK newEmptyTree() {
+        return new IntMultiset();
+    }
+
+    @Override
+    boolean countsMultiplicity() {
+        return true;
+    }
+
+    /**
+     * 加入一次key。
+     * @param key key
+     */
+    @Override
+    public void add(int key) {
+        this.add(key, 1);
+    }
+
+    /**
+     * 加入occurrences次key，只查找一次。
+     * @param key key
+     * @param occurrences 加入的次数，必须为正数
+     * @return 加入之前key出现的次数
+     * @throws ArithmeticException 加入后出现次数之和（totalSize()）超出int范围，此时集合保持不变
+     */
+    public int add(int key, int occurrences) {
+        if (occurrences <= 0) {
+            throw new IllegalArgumentException("Occurrences must be positive: " + occurrences);
+        }
+        // root的子树大小不小于任何节点的出现次数和子树大小，它不溢出则其他都不会溢出
+        Math.addExact(this.totalWeight(), occurrences);
+        int expectedModCount = this.modCount;
+        CountNode e = (CountNode) this.addNode(key);
+        // 新插入的节点已经带有1次出现，并且已经计入了祖先的子树大小
+        int previous = this.modCount == expectedModCount ? e.count : 0;
+        int delta = previous == 0 ? occurrences - 1 : occurrences;
+        if (delta != 0) {
+            e.count = Math.addExact(e.count, delta);
+            this.adjustWeights(e, delta);
+        }
+        return previous;
+    }
+
+    /**
+     * 批量加入一组（可以无序、可以重复的）值，效果与对每个值调用一次add相同。先排序并把相同的值合并成(值, 次数)，
+     * 再按 {@link RedBlackTreeFromJDK#addAll(int[])} 的规则选择：批次较大时归并后重建整棵树，已有节点的出现次数直接累加；
+     * 批次较小时对每个不同的值调用一次add(key, occurrences)。
+     * @param keys 要加入的值，数组本身不会被修改
+     * @return 新加入的不同值的个数，即size()的增量
+     * @throws ArithmeticException 加入后出现次数之和超出int范围，此时集合保持不变
+     */
+    @Override
+    public int addAll(int[] keys) {
+        return this.addAllSorted(keys.clone());
+    }
+
+    /**
+     * 与 {@link #addAll(int[])} 相同，值来自IntStream。
+     * @param keys 要加入的值
+     * @return 新加入的不同值的个数
+     */
+    @Override
+    public int addAll(IntStream keys) {
+        return this.addAllSorted(keys.toArray());
+    }
+
+    /**
+     * @param batch 要加入的值，会被排序并改写
+     */
+    private int addAllSorted(int[] batch) {
+        // 与add(int, int)相同，先检查总数，之后累加出现次数都不会溢出
+        Math.addExact(this.totalWeight(), batch.length);
+        Arrays.sort(batch);
+        // 相同的值合并：batch[0, m)为不同的值，counts[i]为batch[i]在批次中出现的次数
+        int[] counts = new int[batch.length];
+        int m = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (m > 0 && batch[m - 1] == batch[i]) {
+                counts[m - 1]++;
+            } else {
+                batch[m] = batch[i];
+                counts[m++] = 1;
+            }
+        }
+        int n = this.size();
+        if (m == 0) {
+            return 0;
+        }
+        if ((long) m * (32 - Integer.numberOfLeadingZeros(n)) >= n) {
+            // 原有的节点被重新链接，buildFromNodes按multiplicity()重新计算子树大小，所以这里只需要修改count
+            Node[] merged = new Node[n + m];
+            int len = 0;
+            int j = 0;
+            for (Node e = this.getFirstNode(); e != null; e = successor(e)) {
+                while (j < m && batch[j] < e.val) {
+                    merged[len++] = this.newCountNode(batch[j], counts[j]);
+                    j++;
+                }
+                if (j < m && batch[j] == e.val) {
+                    CountNode c = (CountNode) e;
+                    c.count = Math.addExact(c.count, counts[j++]);
+                }
+                merged[len++] = e;
+            }
+            while (j < m) {
+                merged[len++] = this.newCountNode(batch[j], counts[j]);
+                j++;
+            }
+            this.buildFromNodes(merged, len);
+            return len - n;
+        }
+        for (int i = 0; i < m; i++) {
+            this.add(batch[i], counts[i]);
+        }
+        return this.size() - n;
+    }
+
+    private CountNode newCountNode(int key, int count) {
+        CountNode e = new CountNode(null, key);
+        e.count = count;
+        return e;
+    }
+
+    /**
+     * 删除一次key。出现次数减到0时删除节点。
+     * @param key key
+     */
+    @Override
+    public void remove(int key) {
+        this.remove(key, 1);
+    }
+
+    /**
+     * 删除最多occurrences次key。出现次数减到0时删除节点。
+     * @param key key
+     * @param occurrences 删除的次数，必须为正数
+     * @return 删除之前key出现的次数，不存在时为0
+     */
+    public int remove(int key, int occurrences) {
+        if (occurrences <= 0) {
+            throw new IllegalArgumentException("Occurrences must be positive: " + occurrences);
+        }
+        CountNode e = (CountNode) this.getNode(key);
+        if (e == null) {
+            return 0;
+        }
+        int previous = e.count;
+        if (occurrences >= previous) {
+            this.deleteEntry(e);
+        } else {
+            e.count -= occurrences;
+            this.adjustWeights(e, -occurrences);
+        }
+        return previous;
+    }
+
+    /**
+     * @param key key
+     * @return key出现的次数，不存在时为0
+     */
+    public int count(int key) {
+        Node e = this.getNode(key);
+        return e == null ? 0 : ((CountNode) e).count;
+    }
+
+    /**
+     * @return 所有值的出现次数之和。复杂度O(1)。
+     */
+    public int totalSize() {
+        return this.totalWeight();
+    }
+
+    /**
+     * 按升序遍历每个不同的值及其出现次数。
+     */
+    public void forEachEntry(IntIntConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Node e = this.getFirstNode(); e != null; e = successor(e)) {
+            action.accept(e.val, ((CountNode) e).count);
+            if (this.modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
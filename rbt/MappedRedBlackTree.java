@@ -0,0 +1,763 @@
+package rbt;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 节点池存放在内存映射文件中的红黑树，算法与 {@link ArrayRedBlackTree} 相同，只是节点数组换成了文件中的定长记录，
+ * add、remove和旋转直接改写映射的内存，由操作系统负责写回文件。重新打开文件时只需要映射并读取文件头，
+ * 不需要反序列化或重建，树立即可用，启动时间与节点数目无关。
+ *
+ * 文件布局（小端序）：
+ *   文件头 HEADER_BYTES 字节：magic、version、root、size、used、freeHead、clean
+ *   节点区 每个节点 NODE_BYTES = 16 字节：key、left、right、parent，
+ *          其中parent字段的低31位为父节点下标+1（0表示NIL），最高位为1表示红色，新扩展出的全0记录即为黑色的空节点；
+ *          空闲链表中的记录parent字段为FREE，left字段为下一个空闲记录。
+ * 节点区容量不足时把文件扩大一倍并重新映射。单个MappedByteBuffer最大2GB，所以最多容纳MAX_CAPACITY = 134217723个节点
+ * （包括空闲链表中的记录）。
+ *
+ * root、size等字段在内存中维护，由 {@link #force()} 和 {@link #close()} 写回文件头；只有高水位线used在每次推进时立即写入文件头。
+ * 打开时文件头的clean标记被清除，正常close时再置位。如果进程在两者之间崩溃，文件中的树可能处于旋转的中间状态，
+ * 再打开时不使用这些链接，而是从记录本身恢复（见 {@link #recover(Path)}）：[0, used) 中没有标记为FREE的记录就是存活的节点，
+ * 收集它们的值，排序去重后在原地重新构建一棵平衡的树。崩溃时正在进行的那一次add或remove可能生效也可能没有生效，其余修改都会保留。
+ * 恢复不需要额外的节点容量，但需要一个长度为used的int数组（最多约512MB的堆）和一个旁路快照文件（file.recover）。
+ * 这依赖于映射内存的写入在进程崩溃后仍然会由操作系统写回；操作系统崩溃或断电时页面写回的顺序没有保证，
+ * 最后一次force()之后的修改可能只有一部分落盘，恢复出的内容不一定对应任何一个时刻的状态。
+ * 这个类不是线程安全的。
+ */
+public class MappedRedBlackTree implements Closeable {
+
+    static final int NIL = -1;
+
+    private static final int MAGIC = 0x4D544252; // "RBTM"
+    private static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int NODE_BYTES = 16;
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / NODE_BYTES;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_ROOT = 8;
+    private static final int H_SIZE = 12;
+    private static final int H_USED = 16;
+    private static final int H_FREE_HEAD = 20;
+    private static final int H_CLEAN = 24;
+
+    private static final int KEY = 0;
+    private static final int LEFT = 4;
+    private static final int RIGHT = 8;
+    private static final int PARENT = 12;
+    /**
+     * 空闲记录的parent字段。对应的父节点下标超过了MAX_CAPACITY，不会出现在存活的节点中。
+     */
+    private static final int FREE = 0x7FFFFFFF;
+    /**
+     * 恢复时写出的旁路快照文件的后缀，见 {@link #recover(Path)}。
+     */
+    static final String RECOVERY_SUFFIX = ".recover";
+
+    private final FileChannel channel;
+    private MappedByteBuffer buf;
+    private int capacity;
+
+    private int root = NIL;
+    private int size = 0;
+    private int used = 0;
+    private int freeHead = NIL;
+    private boolean recovered;
+
+    private MappedRedBlackTree(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 打开或创建文件file中的树。文件为空时初始化一棵空树。
+     * 文件上次没有正常关闭时，先从存活的记录恢复，见 {@link #recovered()}。
+     * @param file 文件路径
+     * @return 树，使用完毕后必须close
+     * @throws IOException 文件不是这种格式、版本不符，或者文件头损坏
+     */
+    public static MappedRedBlackTree open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedRedBlackTree tree = new MappedRedBlackTree(ch);
+        try {
+            long length = ch.size();
+            if (length == 0) {
+                tree.map(DEFAULT_CAPACITY);
+                tree.buf.putInt(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION);
+                tree.writeHeader();
+            } else {
+                if (length < HEADER_BYTES || length > HEADER_BYTES + (long) MAX_CAPACITY * NODE_BYTES
+                        || (length - HEADER_BYTES) % NODE_BYTES != 0) {
+                    throw new IOException("Illegal tree file length: " + length);
+                }
+                tree.map((int) ((length - HEADER_BYTES) / NODE_BYTES));
+                boolean dirty = tree.readHeader();
+                Path sidecar = file.resolveSibling(file.getFileName() + RECOVERY_SUFFIX);
+                // 没有写完的临时快照说明上次恢复在改写节点区之前就中断了，节点区仍然完整
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + RECOVERY_SUFFIX + ".tmp"));
+                if (Files.exists(sidecar)) {
+                    tree.rebuildFromSidecar(sidecar);
+                } else if (dirty) {
+                    tree.recover(sidecar);
+                }
+            }
+            tree.buf.putInt(H_CLEAN, 0);
+            tree.buf.force();
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private void map(int cap) throws IOException {
+        this.buf = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) cap * NODE_BYTES);
+        this.buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.capacity = cap;
+    }
+
+    /**
+     * 读取并检查文件头。
+     * @return 文件上次是否没有正常关闭，此时只有used是可信的，root、size和freeHead需要由recover重建
+     */
+    private boolean readHeader() throws IOException {
+        if (this.buf.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a mapped red-black tree file");
+        }
+        if (this.buf.getInt(H_VERSION) != VERSION) {
+            throw new IOException("Unsupported tree file version: " + this.buf.getInt(H_VERSION));
+        }
+        this.used = this.buf.getInt(H_USED);
+        if (this.used < 0 || this.used > this.capacity) {
+            throw new IOException("Corrupt tree file header");
+        }
+        if (this.buf.getInt(H_CLEAN) != 1) {
+            return true;
+        }
+        this.root = this.buf.getInt(H_ROOT);
+        this.size = this.buf.getInt(H_SIZE);
+        this.freeHead = this.buf.getInt(H_FREE_HEAD);
+        if (this.size < 0 || this.size > this.used
+                || this.root < NIL || this.root >= this.used || this.freeHead < NIL || this.freeHead >= this.used) {
+            throw new IOException("Corrupt tree file header");
+        }
+        return false;
+    }
+
+    /**
+     * 从没有正常关闭的文件恢复：
+     * 1、收集 [0, used) 中所有存活记录的值，排序去重；
+     * 2、把这些值用 {@link SnapshotCodec} 写入临时文件并fsync，然后原子地改名为旁路快照sidecar；
+     * 3、用与 {@link RedBlackTreeFromJDK#bulkLoad(int[])} 相同的方法在 [0, m) 中原地构建一棵完全平衡的树，刷盘后删除sidecar。
+     * 第3步会覆盖旧的记录，这期间再次崩溃时，下次打开发现sidecar存在，直接用它重新构建；sidecar写完之前崩溃时节点区还没有改动。
+     * 所以恢复过程中任何时刻崩溃都不会丢失数据。复杂度O(used log used)。
+     * @param sidecar 旁路快照文件
+     */
+    private void recover(Path sidecar) throws IOException {
+        int n = this.used;
+        int[] keys = new int[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (this.buf.getInt(offset(i) + PARENT) != FREE) {
+                keys[m++] = key(i);
+            }
+        }
+        Arrays.sort(keys, 0, m);
+        int distinct = 0;
+        for (int i = 0; i < m; i++) {
+            // 崩溃在remove把后继的值复制到被删除节点之后、释放后继之前时，同一个值会出现在两条记录中
+            if (distinct == 0 || keys[distinct - 1] != keys[i]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        m = distinct;
+
+        Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SnapshotCodec.write(m, Arrays.stream(keys, 0, m).iterator(), ch);
+            ch.force(true);
+        }
+        Files.move(tmp, sidecar, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory(sidecar);
+        this.rebuild(keys, m, sidecar);
+    }
+
+    /**
+     * 上次恢复在改写节点区的过程中中断，用它留下的旁路快照重新构建。
+     */
+    private void rebuildFromSidecar(Path sidecar) throws IOException {
+        int[] keys;
+        try (FileChannel ch = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            SnapshotCodec.Reader reader = new SnapshotCodec.Reader(ch);
+            if (reader.count() > this.capacity) {
+                throw new IOException("Recovery snapshot has more keys than the tree file: " + reader.count());
+            }
+            keys = new int[reader.count()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = reader.nextInt();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        this.rebuild(keys, keys.length, sidecar);
+    }
+
+    /**
+     * 用严格升序的keys[0, m)在 [0, m) 中原地构建整棵树，写回文件头并刷盘，然后删除sidecar。
+     */
+    private void rebuild(int[] keys, int m, Path sidecar) throws IOException {
+        int redLevel = 31 - Integer.numberOfLeadingZeros(m + 1);
+        this.root = this.build(keys, 0, m - 1, NIL, 0, redLevel);
+        this.size = m;
+        this.used = m;
+        this.freeHead = NIL;
+        this.writeHeader();
+        this.buf.force();
+        // 删除必须落盘：否则之后的修改在下一次崩溃后会被这份旧的快照覆盖
+        Files.delete(sidecar);
+        forceDirectory(sidecar);
+        this.recovered = true;
+    }
+
+    private static void forceDirectory(Path file) throws IOException {
+        try (FileChannel d = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            d.force(true);
+        }
+    }
+
+    /**
+     * 把keys[lo, hi]构建成一棵子树，keys[i]存放在记录i中。除了第redLevel层染红以外全部为黑色。
+     * @return 子树的根，lo > hi时为NIL
+     */
+    private int build(int[] keys, int lo, int hi, int parent, int level, int redLevel) {
+        if (lo > hi) {
+            return NIL;
+        }
+        int mid = (lo + hi) >>> 1;
+        int off = offset(mid);
+        buf.putInt(off + KEY, keys[mid]);
+        buf.putInt(off + LEFT, this.build(keys, lo, mid - 1, mid, level + 1, redLevel));
+        buf.putInt(off + RIGHT, this.build(keys, mid + 1, hi, mid, level + 1, redLevel));
+        buf.putInt(off + PARENT, level == redLevel ? (parent + 1) | 0x80000000 : parent + 1);
+        return mid;
+    }
+
+    /**
+     * @return 打开时文件是否没有正常关闭、因而从存活的记录恢复过
+     */
+    public boolean recovered() {
+        return this.recovered;
+    }
+
+    private void writeHeader() {
+        this.buf.putInt(H_ROOT, this.root)
+                .putInt(H_SIZE, this.size)
+                .putInt(H_USED, this.used)
+                .putInt(H_FREE_HEAD, this.freeHead);
+    }
+
+    /**
+     * 把文件头和所有修改过的节点写回磁盘。
+     */
+    public void force() {
+        this.writeHeader();
+        this.buf.force();
+    }
+
+    /**
+     * 写回所有修改，标记文件为正常关闭，然后关闭文件。
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.channel.isOpen()) {
+            this.writeHeader();
+            this.buf.putInt(H_CLEAN, 1);
+            this.buf.force();
+            this.channel.close();
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private static int offset(int n) {
+        return HEADER_BYTES + n * NODE_BYTES;
+    }
+
+    private int key(int n) {
+        return buf.getInt(offset(n) + KEY);
+    }
+
+    private int left(int n) {
+        return buf.getInt(offset(n) + LEFT);
+    }
+
+    private int right(int n) {
+        return buf.getInt(offset(n) + RIGHT);
+    }
+
+    private int parent(int n) {
+        return (buf.getInt(offset(n) + PARENT) & 0x7FFFFFFF) - 1;
+    }
+
+    private void setKey(int n, int key) {
+        buf.putInt(offset(n) + KEY, key);
+    }
+
+    private void setLeft(int n, int l) {
+        buf.putInt(offset(n) + LEFT, l);
+    }
+
+    private void setRight(int n, int r) {
+        buf.putInt(offset(n) + RIGHT, r);
+    }
+
+    private void setParent(int n, int p) {
+        int off = offset(n) + PARENT;
+        buf.putInt(off, (buf.getInt(off) & 0x80000000) | (p + 1));
+    }
+
+    /**
+     * 返回包含值k的节点下标
+     * @param k k
+     * @return 如果包含，返回节点下标；否则，返回NIL。
+     */
+    private int getNode(int k) {
+        int node = root;
+        while (node != NIL) {
+            int v = key(node);
+            if (v == k)
+                return node;
+            if (v < k)
+                node = right(node);
+            else
+                node = left(node);
+        }
+        return NIL;
+    }
+
+    public boolean contains(int key) {
+        return this.getNode(key) != NIL;
+    }
+
+    /**
+     * 向红黑树中加入值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#add(int)} 相同。
+     * @param key key
+     * @throws IOException 扩大文件失败
+     */
+    public void add(int key) throws IOException {
+        int t = this.root;
+        if (t == NIL) {
+            this.root = this.newNode(NIL, key);
+            this.size = 1;
+        } else {
+            int p;
+            do {
+                p = t;
+                int v = key(t);
+                if (key == v) {
+                    return;
+                } else if (key < v) {
+                    t = left(t);
+                } else {
+                    t = right(t);
+                }
+            } while (t != NIL);
+
+            int e = this.newNode(p, key);
+            if (key < key(p)) {
+                setLeft(p, e);
+            } else {
+                setRight(p, e);
+            }
+
+            this.fixAfterInsertion(e);
+            ++this.size;
+        }
+    }
+
+    /**
+     * 在红黑树中删除值key。步骤和情况划分与 {@link RedBlackTreeFromJDK#remove(int)} 相同。
+     * @param key key
+     */
+    public void remove(int key) {
+        int p = this.getNode(key);
+        if (p != NIL) {
+            --this.size;
+            int replacement;
+            if (left(p) != NIL && right(p) != NIL) { // 有两个后代，把删除操作下放到后继节点
+                replacement = successor(p);
+                setKey(p, key(replacement));
+                p = replacement;
+            }
+
+            replacement = left(p) != NIL ? left(p) : right(p);
+            if (replacement != NIL) { // 只有一个后代，用后代替换p
+                int pp = parent(p);
+                setParent(replacement, pp);
+                if (pp == NIL) {
+                    this.root = replacement;
+                } else if (p == left(pp)) {
+                    setLeft(pp, replacement);
+                } else {
+                    setRight(pp, replacement);
+                }
+
+                boolean black = colorOf(p);
+                this.freeNode(p);
+                if (black) {
+                    this.fixAfterDeletion(replacement);
+                }
+            } else if (parent(p) == NIL) { // 删除的是没有后代的root
+                this.root = NIL;
+                this.freeNode(p);
+            } else { // 删除的是叶子节点，先修复，再脱离
+                if (colorOf(p)) {
+                    this.fixAfterDeletion(p);
+                }
+                int pp = parent(p);
+                if (pp != NIL) {
+                    if (p == left(pp)) {
+                        setLeft(pp, NIL);
+                    } else if (p == right(pp)) {
+                        setRight(pp, NIL);
+                    }
+                }
+                this.freeNode(p);
+            }
+        }
+    }
+
+    /**
+     * 清空红黑树。文件的大小保持不变，供之后的插入复用。
+     */
+    public void clear() {
+        this.size = 0;
+        this.root = NIL;
+        this.used = 0;
+        this.freeHead = NIL;
+        buf.putInt(H_USED, 0);
+    }
+
+    /**
+     * 分配一个槽位作为新节点，颜色为黑色。优先复用空闲链表中的槽位，否则使用高水位线处的槽位，必要时扩大文件。
+     * parent字段最后写入，在此之前复用的槽位仍然标记为FREE；新槽位写完之后才推进文件头中的used，
+     * 这样崩溃时不完整的记录不会被recover当作存活的节点。
+     */
+    private int newNode(int p, int key) throws IOException {
+        int n;
+        boolean fresh = freeHead == NIL;
+        if (!fresh) {
+            n = freeHead;
+            freeHead = left(n);
+        } else {
+            if (used == capacity) {
+                this.grow();
+            }
+            n = used;
+        }
+        int off = offset(n);
+        buf.putInt(off + KEY, key);
+        buf.putInt(off + LEFT, NIL);
+        buf.putInt(off + RIGHT, NIL);
+        buf.putInt(off + PARENT, p + 1);
+        if (fresh) {
+            used = n + 1;
+            buf.putInt(H_USED, used);
+        }
+        return n;
+    }
+
+    /**
+     * 将节点n的槽位放回空闲链表。先写FREE标记，之后这条记录就不再被recover当作存活的节点。
+     */
+    private void freeNode(int n) {
+        int off = offset(n);
+        buf.putInt(off + PARENT, FREE);
+        buf.putInt(off + RIGHT, NIL);
+        buf.putInt(off + LEFT, freeHead);
+        freeHead = n;
+    }
+
+    /**
+     * 文件中的节点区容量翻倍，然后重新映射。旧的映射在被回收时解除。
+     */
+    private void grow() throws IOException {
+        if (capacity == MAX_CAPACITY) {
+            throw new IOException("Tree file is full: " + capacity + " nodes");
+        }
+        int newCap = (int) Math.min((long) capacity + Math.max(capacity, DEFAULT_CAPACITY), MAX_CAPACITY);
+        this.map(newCap);
+    }
+
+    /**
+     * 寻找以t为中，中序遍历的下一个节点。
+     * @param t 当前节点
+     * @return 下一个节点，没有则返回NIL。
+     */
+    int successor(int t) {
+        if (t == NIL) {
+            return NIL;
+        } else {
+            int p;
+            if (right(t) != NIL) {
+                for (p = right(t); left(p) != NIL; p = left(p)) {
+                }
+
+                return p;
+            } else {
+                p = parent(t);
+
+                for (int ch = t; p != NIL && ch == right(p); p = parent(p)) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    /**
+     * 寻找以t为中，中序遍历的上一个节点。
+     * @param t 当前节点
+     * @return 上一个节点，没有则返回NIL。
+     */
+    int predecessor(int t) {
+        if (t == NIL) {
+            return NIL;
+        } else {
+            int p;
+            if (left(t) != NIL) {
+                for (p = left(t); right(p) != NIL; p = right(p)) {
+                }
+
+                return p;
+            } else {
+                p = parent(t);
+
+                for (int ch = t; p != NIL && ch == left(p); p = parent(p)) {
+                    ch = p;
+                }
+
+                return p;
+            }
+        }
+    }
+
+    /**
+     * 判断节点p的颜色。如果p==NIL，则默认为黑色
+     * @return true表示黑色
+     */
+    private boolean colorOf(int p) {
+        return p == NIL || buf.getInt(offset(p) + PARENT) >= 0;
+    }
+
+    private int parentOf(int p) {
+        return p == NIL ? NIL : parent(p);
+    }
+
+    private void setColor(int p, boolean black) {
+        if (p != NIL) {
+            int off = offset(p) + PARENT;
+            int v = buf.getInt(off);
+            buf.putInt(off, black ? v & 0x7FFFFFFF : v | 0x80000000);
+        }
+    }
+
+    private int leftOf(int p) {
+        return p == NIL ? NIL : left(p);
+    }
+
+    private int rightOf(int p) {
+        return p == NIL ? NIL : right(p);
+    }
+
+    /**
+     * 对节点p和p.right进行左旋操作，参见 RedBlackTreeFromJDK.rotateLeft
+     */
+    private void rotateLeft(int p) {
+        if (p != NIL) {
+            int r = right(p);
+            int rl = left(r);
+            setRight(p, rl);
+            if (rl != NIL) {
+                setParent(rl, p);
+            }
+
+            int pp = parent(p);
+            setParent(r, pp);
+            if (pp == NIL) {
+                this.root = r;
+            } else if (left(pp) == p) {
+                setLeft(pp, r);
+            } else {
+                setRight(pp, r);
+            }
+
+            setLeft(r, p);
+            setParent(p, r);
+        }
+    }
+
+    /**
+     * 对节点p和p.left进行右旋操作，参见 RedBlackTreeFromJDK.rotateRight
+     */
+    private void rotateRight(int p) {
+        if (p != NIL) {
+            int l = left(p);
+            int lr = right(l);
+            setLeft(p, lr);
+            if (lr != NIL) {
+                setParent(lr, p);
+            }
+
+            int pp = parent(p);
+            setParent(l, pp);
+            if (pp == NIL) {
+                this.root = l;
+            } else if (right(pp) == p) {
+                setRight(pp, l);
+            } else {
+                setLeft(pp, l);
+            }
+
+            setRight(l, p);
+            setParent(p, l);
+        }
+    }
+
+    private void fixAfterInsertion(int x) {
+        setColor(x, false);
+
+        while (x != NIL && x != this.root && !colorOf(parent(x))) {
+            int y;
+            if (parentOf(x) == leftOf(parentOf(parentOf(x)))) {
+                y = rightOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) { // 2.3.1 叔叔节点是红色，变色后向上递归
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == rightOf(parentOf(x))) { // 2.3.2.1 折线形，先转为直线形
+                        x = parentOf(x);
+                        this.rotateLeft(x);
+                    }
+                    // 2.3.2.2 直线形
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateRight(parentOf(parentOf(x)));
+                }
+            } else {
+                y = leftOf(parentOf(parentOf(x)));
+                if (!colorOf(y)) {
+                    setColor(parentOf(x), true);
+                    setColor(y, true);
+                    setColor(parentOf(parentOf(x)), false);
+                    x = parentOf(parentOf(x));
+                } else {
+                    if (x == leftOf(parentOf(x))) {
+                        x = parentOf(x);
+                        this.rotateRight(x);
+                    }
+                    setColor(parentOf(x), true);
+                    setColor(parentOf(parentOf(x)), false);
+                    this.rotateLeft(parentOf(parentOf(x)));
+                }
+            }
+        }
+        setColor(this.root, true);
+    }
+
+    private void fixAfterDeletion(int x) {
+        while (x != this.root && colorOf(x)) {
+            int bro;
+            if (x == leftOf(parentOf(x))) {
+                bro = rightOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateLeft(parentOf(x));
+                    bro = rightOf(parentOf(x));
+                }
+                if (colorOf(leftOf(bro)) && colorOf(rightOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(rightOf(bro))) {
+                        setColor(leftOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateRight(bro);
+                        bro = rightOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(rightOf(bro), true);
+                    this.rotateLeft(parentOf(x));
+                    x = this.root;
+                }
+            } else {
+                bro = leftOf(parentOf(x));
+                if (!colorOf(bro)) {
+                    setColor(bro, true);
+                    setColor(parentOf(x), false);
+                    this.rotateRight(parentOf(x));
+                    bro = leftOf(parentOf(x));
+                }
+                if (colorOf(rightOf(bro)) && colorOf(leftOf(bro))) {
+                    setColor(bro, false);
+                    x = parentOf(x);
+                } else {
+                    if (colorOf(leftOf(bro))) {
+                        setColor(rightOf(bro), true);
+                        setColor(bro, false);
+                        this.rotateLeft(bro);
+                        bro = leftOf(parentOf(x));
+                    }
+                    setColor(bro, colorOf(parentOf(x)));
+                    setColor(parentOf(x), true);
+                    setColor(leftOf(bro), true);
+                    this.rotateRight(parentOf(x));
+                    x = this.root;
+                }
+            }
+        }
+        setColor(x, true);
+    }
+
+
+    /***************************************************************************************************************/
+    /**
+     * 返回中序遍历的字符串，格式与 {@link RedBlackTreeFromJDK#strValues()} 相同。
+     */
+    public String strValues() {
+        if (this.root == NIL) {
+            return "[]";
+        }
+        int node = this.root;
+        while (left(node) != NIL)
+            node = left(node);
+        StringBuilder sb = new StringBuilder("[");
+        while (node != NIL) {
+            sb.append(key(node)).append(",");
+            node = successor(node);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -16,4 +16,19 @@ public class Node {
         val = v;
         isBlack = b;
     }
+
+    /**
+     * 删除有两个后代的节点时，用后继节点n的内容覆盖本节点。子类节点携带的数据也要一并复制。
+     * @param n 后继节点
+     */
+    void copyFrom(Node n) {
+        val = n.val;
+    }
+
+    /**
+     * 本节点在顺序统计中占的位置数（子树大小保存在 {@link WeightedNode} 中）。普通节点为1，多重集合的节点为该值出现的次数。
+     */
+    int multiplicity() {
+        return 1;
+    }
 }
\ No newline at end of file
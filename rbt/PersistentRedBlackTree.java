@@ -0,0 +1,344 @@
+package rbt;
+
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * 可持久化（path copying）红黑树。节点不可变，也没有parent字段：add和remove只复制从root到目标位置这一条路径上的
+ * O(log n)个节点，路径以外的子树在新旧版本之间共享。每个版本就是一个不可变的root，所以：
+ * 1、{@link #snapshot()} 只需要读取当前版本，复杂度O(1)；
+ * 2、拿到快照的读线程可以不加锁地查询和遍历，之后的写操作不会影响它看到的内容。
+ * 写操作之间用synchronized串行化，新版本通过volatile字段发布。
+ *
+ * 与 {@link RedBlackTreeFromJDK} 自底向上沿parent修复不同，这里的修复是在递归返回的过程中完成的：
+ * 1、插入（Okasaki）：新节点为红色，递归返回时，如果黑色节点的某个孩子和孙子同为红色（对应add注释中的2.3），
+ *    用balance把这三个节点重组为“红色父节点 + 两个黑色孩子”，红色父节点继续交给上一层检查，相当于向上递归；
+ *    最后把root染黑。
+ * 2、删除（Kahrs）：从黑色子树中删除会让该子树黑高-1（对应remove注释中的双黑），递归返回时由balanceLeft/balanceRight
+ *    借用兄弟子树的节点补齐黑高；被删除的节点由它的左右子树用append合并替代。
+ */
+public final class PersistentRedBlackTree {
+
+    /**
+     * 不可变节点。
+     */
+    static final class Entry {
+        final Entry left;
+        final int val;
+        final Entry right;
+        final boolean isBlack;
+
+        Entry(Entry left, int val, Entry right, boolean isBlack) {
+            this.left = left;
+            this.val = val;
+            this.right = right;
+            this.isBlack = isBlack;
+        }
+    }
+
+    /**
+     * 一个不可变的版本。可以在任意线程中不加锁地读取。
+     */
+    public static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, 0);
+
+        final Entry root;
+        private final int size;
+
+        Snapshot(Entry root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public boolean contains(int key) {
+            return getEntry(this.root, key) != null;
+        }
+
+        /**
+         * 返回最小值。快照为空时抛出NoSuchElementException。
+         */
+        public int first() {
+            Entry p = this.root;
+            if (p == null) {
+                throw new NoSuchElementException();
+            }
+            while (p.left != null) {
+                p = p.left;
+            }
+            return p.val;
+        }
+
+        /**
+         * 返回最大值。快照为空时抛出NoSuchElementException。
+         */
+        public int last() {
+            Entry p = this.root;
+            if (p == null) {
+                throw new NoSuchElementException();
+            }
+            while (p.right != null) {
+                p = p.right;
+            }
+            return p.val;
+        }
+
+        /**
+         * 按升序遍历所有值。
+         */
+        public void forEach(IntConsumer action) {
+            for (PrimitiveIterator.OfInt it = this.iterator(); it.hasNext(); ) {
+                action.accept(it.nextInt());
+            }
+        }
+
+        /**
+         * @return 按升序返回值的迭代器。节点没有parent，所以用一个显式栈保存从root到当前节点的左链。
+         */
+        public PrimitiveIterator.OfInt iterator() {
+            return new EntryIterator(this.root);
+        }
+    }
+
+    /**
+     * 基于显式栈的中序迭代器。红黑树的高度不超过2*log2(n+1)，对于int范围内的n，64层的栈足够。
+     */
+    private static final class EntryIterator implements PrimitiveIterator.OfInt {
+        private final Entry[] stack = new Entry[64];
+        private int depth = 0;
+
+        EntryIterator(Entry root) {
+            this.pushLeft(root);
+        }
+
+        private void pushLeft(Entry p) {
+            for (; p != null; p = p.left) {
+                this.stack[this.depth++] = p;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.depth > 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (this.depth == 0) {
+                throw new NoSuchElementException();
+            }
+            Entry e = this.stack[--this.depth];
+            this.stack[this.depth] = null;
+            this.pushLeft(e.right);
+            return e.val;
+        }
+    }
+
+    private volatile Snapshot current = Snapshot.EMPTY;
+
+    public PersistentRedBlackTree() {}
+
+    /**
+     * @return 当前版本。复杂度O(1)，之后的写操作不会影响返回的快照。
+     */
+    public Snapshot snapshot() {
+        return this.current;
+    }
+
+    public int size() {
+        return this.current.size();
+    }
+
+    public boolean contains(int key) {
+        return this.current.contains(key);
+    }
+
+    /**
+     * 加入值key，生成新版本。已存在时不产生新版本。
+     * @param key key
+     */
+    public synchronized void add(int key) {
+        Snapshot s = this.current;
+        if (getEntry(s.root, key) == null) {
+            this.current = new Snapshot(blacken(insert(s.root, key)), s.size + 1);
+        }
+    }
+
+    /**
+     * 删除值key，生成新版本。不存在时不产生新版本。
+     * @param key key
+     */
+    public synchronized void remove(int key) {
+        Snapshot s = this.current;
+        if (getEntry(s.root, key) != null) {
+            this.current = new Snapshot(blacken(delete(s.root, key)), s.size - 1);
+        }
+    }
+
+    /**
+     * 清空，生成一个空版本。
+     */
+    public synchronized void clear() {
+        this.current = Snapshot.EMPTY;
+    }
+
+    private static Entry getEntry(Entry p, int k) {
+        while (p != null) {
+            if (p.val == k)
+                return p;
+            p = p.val < k ? p.right : p.left;
+        }
+        return null;
+    }
+
+    private static boolean isRed(Entry p) {
+        return p != null && !p.isBlack;
+    }
+
+    private static Entry blacken(Entry p) {
+        return p == null || p.isBlack ? p : new Entry(p.left, p.val, p.right, true);
+    }
+
+    private static Entry redden(Entry p) {
+        return new Entry(p.left, p.val, p.right, false);
+    }
+
+    /**
+     * 递归插入，只复制查找路径上的节点。调用前已确认key不存在。
+     */
+    private static Entry insert(Entry t, int key) {
+        if (t == null) {
+            return new Entry(null, key, null, false);
+        }
+        if (t.isBlack) {
+            return key < t.val ? balance(insert(t.left, key), t.val, t.right)
+                               : balance(t.left, t.val, insert(t.right, key));
+        }
+        return key < t.val ? new Entry(insert(t.left, key), t.val, t.right, false)
+                           : new Entry(t.left, t.val, insert(t.right, key), false);
+    }
+
+    /**
+     * 以黑色节点x为局部最高点重新组合。如果x的某个孩子和孙子同为红色：
+     *        z(黑)               x(黑)              x(黑)               x(黑)
+     *        /                  /                     \                   \
+     *      y(红)              y(红)                  z(红)                y(红)
+     *      /                    \                   /                       \
+     *    x(红)                  z(红)            y(红)                      z(红)
+     * 四种情况都重组为：
+     *                y(红)
+     *               /    \
+     *            x(黑)   z(黑)
+     * 黑高不变，红色的y交给上一层继续检查。另外，左右孩子都是红色时（对应2.3.1叔叔为红色），直接把两个孩子染黑、自己染红。
+     */
+    private static Entry balance(Entry l, int v, Entry r) {
+        if (isRed(l) && isRed(r)) {
+            return new Entry(blacken(l), v, blacken(r), false);
+        }
+        if (isRed(l)) {
+            if (isRed(l.left)) {
+                return new Entry(blacken(l.left), l.val, new Entry(l.right, v, r, true), false);
+            }
+            if (isRed(l.right)) {
+                return new Entry(new Entry(l.left, l.val, l.right.left, true), l.right.val,
+                        new Entry(l.right.right, v, r, true), false);
+            }
+        }
+        if (isRed(r)) {
+            if (isRed(r.right)) {
+                return new Entry(new Entry(l, v, r.left, true), r.val, blacken(r.right), false);
+            }
+            if (isRed(r.left)) {
+                return new Entry(new Entry(l, v, r.left.left, true), r.left.val,
+                        new Entry(r.left.right, r.val, r.right, true), false);
+            }
+        }
+        return new Entry(l, v, r, true);
+    }
+
+    /**
+     * 递归删除，调用前已确认key存在。如果t是黑色节点，返回的子树黑高比t少1；否则黑高不变。
+     */
+    private static Entry delete(Entry t, int key) {
+        if (key < t.val) {
+            if (t.left != null && t.left.isBlack) {
+                return balanceLeft(delete(t.left, key), t.val, t.right);
+            }
+            return new Entry(delete(t.left, key), t.val, t.right, false);
+        }
+        if (key > t.val) {
+            if (t.right != null && t.right.isBlack) {
+                return balanceRight(t.left, t.val, delete(t.right, key));
+            }
+            return new Entry(t.left, t.val, delete(t.right, key), false);
+        }
+        return append(t.left, t.right);
+    }
+
+    /**
+     * 左子树l的黑高比右子树r少1，通过旋转和变色补齐。
+     */
+    private static Entry balanceLeft(Entry l, int v, Entry r) {
+        if (isRed(l)) { // 左子树根是红色，直接染黑即可补上少掉的黑色
+            return new Entry(blacken(l), v, r, false);
+        }
+        if (r != null && r.isBlack) { // 兄弟是黑色，把兄弟染红，两侧黑高相等后交给balance处理可能出现的红红冲突
+            return balance(l, v, redden(r));
+        }
+        // 兄弟是红色，它的左孩子一定是黑色：把左孩子旋转上来作为新的局部最高点
+        Entry rl = r.left;
+        return new Entry(new Entry(l, v, rl.left, true), rl.val, balance(rl.right, r.val, redden(r.right)), false);
+    }
+
+    /**
+     * 右子树r的黑高比左子树l少1，与balanceLeft对称。
+     */
+    private static Entry balanceRight(Entry l, int v, Entry r) {
+        if (isRed(r)) {
+            return new Entry(l, v, blacken(r), false);
+        }
+        if (l != null && l.isBlack) {
+            return balance(redden(l), v, r);
+        }
+        Entry lr = l.right;
+        return new Entry(balance(redden(l.left), l.val, lr.left), lr.val, new Entry(lr.right, v, r, true), false);
+    }
+
+    /**
+     * 合并被删除节点的左右子树l和r（l中所有值 < r中所有值，两者黑高相同）。
+     * 如果被删除的节点是黑色，结果的黑高比原来少1，由调用者的balanceLeft/balanceRight补齐。
+     */
+    private static Entry append(Entry l, Entry r) {
+        if (l == null) {
+            return r;
+        }
+        if (r == null) {
+            return l;
+        }
+        if (isRed(l) && isRed(r)) {
+            Entry m = append(l.right, r.left);
+            if (isRed(m)) {
+                return new Entry(new Entry(l.left, l.val, m.left, false), m.val,
+                        new Entry(m.right, r.val, r.right, false), false);
+            }
+            return new Entry(l.left, l.val, new Entry(m, r.val, r.right, false), false);
+        }
+        if (l.isBlack && r.isBlack) {
+            Entry m = append(l.right, r.left);
+            if (isRed(m)) {
+                return new Entry(new Entry(l.left, l.val, m.left, true), m.val,
+                        new Entry(m.right, r.val, r.right, true), false);
+            }
+            return balanceLeft(l.left, l.val, new Entry(m, r.val, r.right, true));
+        }
+        if (isRed(r)) {
+            return new Entry(append(l, r.left), r.val, r.right, false);
+        }
+        return new Entry(l.left, l.val, append(l.right, r), false);
+    }
+}
@@ -0,0 +1,185 @@
+package rbt;
+
+
+/**
+ * {@link RedBlackTreeFromJDK} 的再平衡统计，用来分析某种负载为什么慢。
+ * 统计由系统属性 rbt.stats 控制（-Drbt.stats=true），在类加载时确定。关闭时 {@link #ENABLED} 是编译期之后不变的
+ * static final常量，所有计数代码都包在 if (ENABLED) 中，会被JIT当作死代码消除，没有任何开销。
+ * 计数器是普通的long，和树本身一样不是线程安全的；在 {@link ConcurrentRedBlackTree} 的乐观读下，查找路径的计数可能偏少。
+ * 情况编号与 {@link RedBlackTreeFromJDK#add(int)} 和 {@link RedBlackTreeFromJDK#remove(int)} 的注释一致。
+ * 树通过 {@link RedBlackTreeFromJDK#rebalanceStats()} 返回一份快照，快照之后的操作不会影响它。
+ */
+public final class RebalanceStats {
+
+    public static final boolean ENABLED = Boolean.getBoolean("rbt.stats");
+
+    long inserts;
+    long deletes;
+    long searches;
+    long searchSteps;
+    long rotateLeft;
+    long rotateRight;
+    long recolors;
+    long insertLoops;
+    long deleteLoops;
+    /**
+     * 插入修复的三种情况：2.3.1 叔叔为红色，变色后向上递归；2.3.2.1 折线形，先旋转为直线形；2.3.2.2 直线形，变色并旋转。
+     */
+    long insertUncleRed;
+    long insertZigzag;
+    long insertLine;
+    /**
+     * 删除修复（双黑处理）的四种情况：兄弟为红色；兄弟和两个侄子都是黑色，把兄弟染红后向上传递；
+     * 远侄子为黑、近侄子为红，先旋转兄弟；远侄子为红，变色并旋转父节点，修复结束。
+     */
+    long deleteSiblingRed;
+    long deleteSiblingBlack;
+    long deleteNearNephewRed;
+    long deleteFarNephewRed;
+
+    RebalanceStats() {}
+
+    RebalanceStats copy() {
+        RebalanceStats s = new RebalanceStats();
+        s.copyFrom(this);
+        return s;
+    }
+
+    void copyFrom(RebalanceStats o) {
+        this.inserts = o.inserts;
+        this.deletes = o.deletes;
+        this.searches = o.searches;
+        this.searchSteps = o.searchSteps;
+        this.rotateLeft = o.rotateLeft;
+        this.rotateRight = o.rotateRight;
+        this.recolors = o.recolors;
+        this.insertLoops = o.insertLoops;
+        this.deleteLoops = o.deleteLoops;
+        this.insertUncleRed = o.insertUncleRed;
+        this.insertZigzag = o.insertZigzag;
+        this.insertLine = o.insertLine;
+        this.deleteSiblingRed = o.deleteSiblingRed;
+        this.deleteSiblingBlack = o.deleteSiblingBlack;
+        this.deleteNearNephewRed = o.deleteNearNephewRed;
+        this.deleteFarNephewRed = o.deleteFarNephewRed;
+    }
+
+    void recordSearch(int steps) {
+        this.searches++;
+        this.searchSteps += steps;
+    }
+
+    /**
+     * @return 插入的新节点数目（已存在的值不计）
+     */
+    public long inserts() {
+        return this.inserts;
+    }
+
+    /**
+     * @return 摘除的节点数目
+     */
+    public long deletes() {
+        return this.deletes;
+    }
+
+    /**
+     * @return 查找（包括contains、remove和add的定位）的次数
+     */
+    public long searches() {
+        return this.searches;
+    }
+
+    /**
+     * @return 所有查找经过的节点总数
+     */
+    public long searchSteps() {
+        return this.searchSteps;
+    }
+
+    public long rotateLeft() {
+        return this.rotateLeft;
+    }
+
+    public long rotateRight() {
+        return this.rotateRight;
+    }
+
+    /**
+     * @return 修复过程中的变色次数，不含最后把root或x染黑的那一次
+     */
+    public long recolors() {
+        return this.recolors;
+    }
+
+    /**
+     * @return fixAfterInsertion的循环次数
+     */
+    public long insertLoops() {
+        return this.insertLoops;
+    }
+
+    /**
+     * @return fixAfterDeletion的循环次数
+     */
+    public long deleteLoops() {
+        return this.deleteLoops;
+    }
+
+    public long insertUncleRed() {
+        return this.insertUncleRed;
+    }
+
+    public long insertZigzag() {
+        return this.insertZigzag;
+    }
+
+    public long insertLine() {
+        return this.insertLine;
+    }
+
+    public long deleteSiblingRed() {
+        return this.deleteSiblingRed;
+    }
+
+    public long deleteSiblingBlack() {
+        return this.deleteSiblingBlack;
+    }
+
+    public long deleteNearNephewRed() {
+        return this.deleteNearNephewRed;
+    }
+
+    public long deleteFarNephewRed() {
+        return this.deleteFarNephewRed;
+    }
+
+    /**
+     * @return 每次插入或删除平均的旋转次数
+     */
+    public double rotationsPerOp() {
+        long ops = this.inserts + this.deletes;
+        return ops == 0 ? 0 : (double) (this.rotateLeft + this.rotateRight) / ops;
+    }
+
+    /**
+     * @return 平均查找路径长度
+     */
+    public double averageSearchPath() {
+        return this.searches == 0 ? 0 : (double) this.searchSteps / this.searches;
+    }
+
+    @Override
+    public String toString() {
+        return "inserts=" + this.inserts + ", deletes=" + this.deletes
+                + ", rotations=" + (this.rotateLeft + this.rotateRight) + " (left=" + this.rotateLeft
+                + ", right=" + this.rotateRight + ", perOp=" + String.format("%.3f", this.rotationsPerOp()) + ")"
+                + ", recolors=" + this.recolors
+                + ", insertLoops=" + this.insertLoops + " (uncleRed=" + this.insertUncleRed
+                + ", zigzag=" + this.insertZigzag + ", line=" + this.insertLine + ")"
+                + ", deleteLoops=" + this.deleteLoops + " (siblingRed=" + this.deleteSiblingRed
+                + ", siblingBlack=" + this.deleteSiblingBlack + ", nearNephewRed=" + this.deleteNearNephewRed
+                + ", farNephewRed=" + this.deleteFarNephewRed + ")"
+                + ", searches=" + this.searches + " (avgPath=" + String.format("%.2f", this.averageSearchPath()) + ")";
+    }
+}
@@ -1,9 +1,19 @@
 package rbt;
 
 
-import java.util.HashSet;
-import java.util.Random;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 /**
  * 仿照 JDK 1.11 中的TreeMap源码，剥离出来的红黑树的高效实现，并附上了诸多注释。
@@ -12,175 +22,1422 @@ import java.util.TreeMap;
  */
 public class RedBlackTreeFromJDK {
 
+    /**
+     * 是否统计再平衡的过程，见 {@link RebalanceStats}。
+     */
+    private static final boolean STATS = RebalanceStats.ENABLED;
+
     private Node root;
+    /**
+     * 节点数目。split、join、concat之后，如果没有开启顺序统计，两侧的节点数目无法在O(log n)内得到，
+     * 此时记为-1，等到第一次调用size()时再遍历统计并缓存下来。
+     */
     private int size = 0;
+    /**
+     * 缓存的最左节点，即最小值所在的节点。树为空时为null。
+     */
+    private Node first;
+    /**
+     * 缓存的最右节点，即最大值所在的节点。树为空时为null。旋转不改变中序序列，所以最左、最右节点只在增删和整体替换时变化。
+     */
+    private Node last;
+    /**
+     * 结构修改（增删节点）的次数，用于迭代器的快速失败检测。
+     */
+    int modCount = 0;
+    /**
+     * 是否维护每个节点的子树大小（WeightedNode.weight），用于O(log n)的select、rank和countInRange。
+     * 开启时newNode创建 {@link WeightedNode}，所有读写子树大小的代码都只在开启时执行。
+     */
+    private final boolean orderStatistics;
+    /**
+     * 再平衡统计，只有开启了STATS时才会创建。
+     */
+    private final RebalanceStats stats = STATS ? new RebalanceStats() : null;
+    /**
+     * 是否开启finger查找，以及最近一次查找、插入或删除所在的位置（finger）。finger为null时从root开始查找。
+     */
+    private boolean fingerSearch;
+    private Node finger;
+    /**
+     * 工作区：最近一次join或concat得到的子树的黑高，见下面基于join的分裂与拼接操作。
+     */
+    private int joinedBlackHeight;
+
+    public RedBlackTreeFromJDK() {
+        this(false);
+    }
 
-    public RedBlackTreeFromJDK() {}
+    /**
+     * @param orderStatistics 是否开启顺序统计。开启后add、remove和旋转都需要额外维护子树大小。
+     */
+    public RedBlackTreeFromJDK(boolean orderStatistics) {
+        this.orderStatistics = orderStatistics;
+    }
 
     public int size() {
+        if (this.size < 0) {
+            this.size = countNodes(this.root);
+        }
         return this.size;
     }
 
     /**
-     * 返回包含节点k的Node
-     * @param k k
-     * @return 如果包含，返回node；否则，返回null。
+     * 返回包含节点k的Node
+     * @param k k
+     * @return 如果包含，返回node；否则，返回null。
+     */
+    final Node getNode(int k) {
+        if (this.fingerSearch) {
+            return this.getNodeFromFinger(k);
+        }
+        Node node = root;
+        int steps = 0;
+        while (node != null) {
+            if (STATS) {
+                steps++;
+            }
+            if (node.val == k)
+                break;
+            if (node.val < k)
+                node = node.right;
+            else
+                node = node.left;
+        }
+        if (STATS) {
+            this.stats.recordSearch(steps);
+        }
+        return node;
+    }
+
+    /**
+     * finger模式下的getNode：先用fingerStart从上一次访问的节点向上爬到包含key的子树，再向下查找。
+     * 查找结束的位置（命中的节点，或者最后经过的节点）成为新的finger。
+     */
+    private Node getNodeFromFinger(int k) {
+        Node node = this.fingerStart(k);
+        Node last = node;
+        int steps = 0;
+        while (node != null) {
+            if (STATS) {
+                steps++;
+            }
+            last = node;
+            if (node.val == k)
+                break;
+            if (node.val < k)
+                node = node.right;
+            else
+                node = node.left;
+        }
+        if (STATS) {
+            this.stats.recordSearch(steps);
+        }
+        this.finger = last;
+        return node;
+    }
+
+    /**
+     * 从finger出发，沿parent向上爬，直到遇到第一个子树值域包含key的节点x，之后从x向下查找即可。
+     * 以key > x.val为例：如果x是父节点p的左孩子并且key < p.val，那么key落在x的子树的值域 (x.val, p.val) 内，停止；
+     * 否则（x是右孩子，或者key >= p.val）x的子树不可能包含key，继续向上。key < x.val时对称。
+     * 相邻的访问之间相差d个位置时，通常只需要爬O(log d)层；finger恰好位于一棵高子树的边界、而key在边界另一侧时，
+     * 仍然需要爬到两者的最近公共祖先，最坏O(log n)。
+     * @param k key
+     * @return 查找的起点，finger为null时为root
+     */
+    private Node fingerStart(int k) {
+        Node x = this.finger;
+        if (x == null) {
+            return this.root;
+        }
+        int climbed = 0;
+        if (k > x.val) {
+            for (Node p = x.parent; p != null && (x == p.right || k >= p.val); p = x.parent) {
+                x = p;
+                climbed++;
+            }
+        } else if (k < x.val) {
+            for (Node p = x.parent; p != null && (x == p.left || k <= p.val); p = x.parent) {
+                x = p;
+                climbed++;
+            }
+        }
+        if (STATS) {
+            this.stats.searchSteps += climbed;
+        }
+        return x;
+    }
+
+    /**
+     * 开启或关闭finger查找。开启后，getNode、add、remove从上一次访问的节点出发，先沿parent向上爬、再向下查找，
+     * 访问的键彼此接近时比每次都从root开始快得多。开启后查询也会修改树的状态（finger），
+     * 所以不能在 {@link ConcurrentRedBlackTree} 等允许并发读的包装中开启。
+     * 访问随机分布时，向上爬的过程几乎总要走到root附近，反而比直接从root查找慢，因此默认关闭。
+     * @param enabled 是否开启
+     */
+    public void setFingerSearch(boolean enabled) {
+        this.fingerSearch = enabled;
+        this.finger = null;
+    }
+
+    public boolean contains(int key) {
+        return this.getNode(key) != null;
+    }
+
+    /**
+     * 返回值小于等于k的节点中值最大的节点。只做一次从root到叶子的下降，沿途记录候选节点。
+     * @param k k
+     * @return 不存在时返回null。
+     */
+    final Node getFloorNode(int k) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.val == k)
+                return node;
+            if (node.val < k) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值大于等于k的节点中值最小的节点。
+     * @param k k
+     * @return 不存在时返回null。
+     */
+    final Node getCeilingNode(int k) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.val == k)
+                return node;
+            if (node.val > k) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值严格小于k的节点中值最大的节点。
+     * @param k k
+     * @return 不存在时返回null。
+     */
+    final Node getLowerNode(int k) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.val < k) {
+                candidate = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * 返回值严格大于k的节点中值最小的节点。
+     * @param k k
+     * @return 不存在时返回null。
+     */
+    final Node getHigherNode(int k) {
+        Node node = root;
+        Node candidate = null;
+        while (node != null) {
+            if (node.val > k) {
+                candidate = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * {@link #findBounded(int, int)} 的查找关系。
+     */
+    static final int EXACT = 0;
+    static final int FLOOR = 1;
+    static final int CEILING = 2;
+    static final int LOWER = 3;
+    static final int HIGHER = 4;
+
+    /**
+     * findBounded最多下降的步数。合法的红黑树高度不超过2*log2(n+1)，n在int范围内时小于64。
+     */
+    static final int OPTIMISTIC_STEPS = 128;
+    /**
+     * findBounded超出步数时的返回值。
+     */
+    static final Node STEPS_EXCEEDED = new Node();
+
+    /**
+     * 供乐观读使用的查找，结果与getNode、getFloorNode、getCeilingNode、getLowerNode、getHigherNode相同，但最多下降
+     * OPTIMISTIC_STEPS步。乐观读和写操作并发时，没有同步的字段可能读到旋转过程中的中间状态，
+     * 例如 p.right == r && r.left == p 形成的环，不限步数的下降可能永远不结束，也就走不到StampedLock的validate。
+     * 超出步数说明读到的一定不是合法的红黑树，调用者应当退回到读锁。所有读到的引用都先判空，不会抛出异常；
+     * 不记录统计，也不移动finger。
+     * @param k k
+     * @param relation EXACT、FLOOR、CEILING、LOWER、HIGHER之一
+     * @return 查找结果，不存在时为null；超出步数时为STEPS_EXCEEDED
+     */
+    final Node findBounded(int k, int relation) {
+        Node node = this.root;
+        Node candidate = null;
+        for (int steps = 0; node != null; steps++) {
+            if (steps == OPTIMISTIC_STEPS) {
+                return STEPS_EXCEEDED;
+            }
+            int v = node.val;
+            if (v == k) {
+                if (relation <= CEILING) {
+                    return node;
+                }
+                node = relation == LOWER ? node.left : node.right;
+            } else if (v < k) {
+                if (relation == FLOOR || relation == LOWER) {
+                    candidate = node;
+                }
+                node = node.right;
+            } else {
+                if (relation == CEILING || relation == HIGHER) {
+                    candidate = node;
+                }
+                node = node.left;
+            }
+        }
+        return candidate;
+    }
+
+    private static OptionalInt valueOf(Node p) {
+        return p == null ? OptionalInt.empty() : OptionalInt.of(p.val);
+    }
+
+    /**
+     * @return 小于等于key的最大值；不存在时返回OptionalInt.empty()。
+     */
+    public OptionalInt floor(int key) {
+        return valueOf(this.getFloorNode(key));
+    }
+
+    /**
+     * @return 大于等于key的最小值；不存在时返回OptionalInt.empty()。
+     */
+    public OptionalInt ceiling(int key) {
+        return valueOf(this.getCeilingNode(key));
+    }
+
+    /**
+     * @return 严格小于key的最大值；不存在时返回OptionalInt.empty()。
+     */
+    public OptionalInt lower(int key) {
+        return valueOf(this.getLowerNode(key));
+    }
+
+    /**
+     * @return 严格大于key的最小值；不存在时返回OptionalInt.empty()。
+     */
+    public OptionalInt higher(int key) {
+        return valueOf(this.getHigherNode(key));
+    }
+
+    /**
+     * 返回最小值。与TreeSet.first()一样，树为空时抛出NoSuchElementException。
+     * @return 最小值
+     */
+    public int first() {
+        Node p = this.getFirstNode();
+        if (p == null) {
+            throw new NoSuchElementException();
+        }
+        return p.val;
+    }
+
+    /**
+     * 返回最大值。树为空时抛出NoSuchElementException。
+     * @return 最大值
+     */
+    public int last() {
+        Node p = this.getLastNode();
+        if (p == null) {
+            throw new NoSuchElementException();
+        }
+        return p.val;
+    }
+
+    /**
+     * @return 是否开启了顺序统计。
+     */
+    public boolean hasOrderStatistics() {
+        return this.orderStatistics;
+    }
+
+    /**
+     * 一次遍历检查红黑树的全部性质：root为黑色、红色节点没有红色孩子、每条路径的黑色节点数目相同、BST顺序、
+     * parent链接一致，以及子树大小、缓存的size、first和last与实际相符。不会修改树，也不会因为树已损坏而抛出异常，
+     * 发现的问题都记录在返回的报告中。大的子树在公共ForkJoinPool上并行检查，期间不能修改树。
+     * @return 包含节点数目、高度、黑高、深度分布以及所有问题的报告
+     */
+    public ValidationReport validate() {
+        return this.validate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定的ForkJoinPool上检查，见 {@link #validate()}。
+     */
+    public ValidationReport validate(ForkJoinPool pool) {
+        TreeValidator.Result r = TreeValidator.check(this.root, this.orderStatistics, pool);
+        if (this.root != null && !this.root.isBlack) {
+            r.violation("root is red");
+        }
+        if (this.root != null && this.root.parent != null) {
+            r.violation("root has a parent");
+        }
+        if (this.size >= 0 && this.size != r.count) {
+            r.violation("cached size is " + this.size + ", but the tree has " + r.count + " nodes");
+        }
+        if (this.first != leftmost(this.root)) {
+            r.violation("cached first node is not the leftmost node");
+        }
+        if (this.last != rightmost(this.root)) {
+            r.violation("cached last node is not the rightmost node");
+        }
+        return r.toReport();
+    }
+
+    /**
+     * 返回当前再平衡统计的快照：旋转、变色、修复循环的次数，各种修复情况出现的次数，以及查找路径长度。
+     * 需要用 -Drbt.stats=true 开启，见 {@link RebalanceStats}。
+     * @return 统计快照，之后的操作不会影响它
+     */
+    public RebalanceStats rebalanceStats() {
+        if (!STATS) {
+            throw new UnsupportedOperationException("Rebalancing statistics are disabled, run with -Drbt.stats=true");
+        }
+        return this.stats.copy();
+    }
+
+    /**
+     * 把再平衡统计清零。未开启统计时什么也不做。
+     */
+    public void resetRebalanceStats() {
+        if (STATS) {
+            this.stats.copyFrom(new RebalanceStats());
+        }
+    }
+
+    private void checkOrderStatistics() {
+        if (!this.orderStatistics) {
+            throw new UnsupportedOperationException("Order statistics are not enabled for this tree");
+        }
+    }
+
+    /**
+     * 返回升序排列中第k个值（k从0开始）。利用子树大小从root往下走，每层决定向左、命中还是向右，复杂度O(log n)。
+     * @param k 序号，0 <= k < size()
+     * @return 第k小的值
+     */
+    public int select(int k) {
+        this.checkOrderStatistics();
+        int n = weightOf(this.root);
+        if (k < 0 || k >= n) {
+            throw new IndexOutOfBoundsException("Index: " + k + ", Size: " + n);
+        }
+        Node node = this.root;
+        while (true) {
+            int lw = weightOf(node.left);
+            if (k < lw) {
+                node = node.left;
+            } else if (k < lw + node.multiplicity()) {
+                return node.val;
+            } else {
+                k -= lw + node.multiplicity();
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * 返回树中严格小于key的值的个数，即key按升序插入后所在的位置。复杂度O(log n)。
+     * @param key key
+     * @return 小于key的值的个数
+     */
+    public int rank(int key) {
+        this.checkOrderStatistics();
+        return this.countBelow(key, false);
+    }
+
+    /**
+     * 返回树中落在闭区间[lo, hi]内的值的个数。复杂度O(log n)。
+     * @param lo 下界（包含）
+     * @param hi 上界（包含）
+     * @return 区间内的值的个数；lo > hi时返回0
+     */
+    public int countInRange(int lo, int hi) {
+        this.checkOrderStatistics();
+        if (lo > hi) {
+            return 0;
+        }
+        return this.countBelow(hi, true) - this.countBelow(lo, false);
+    }
+
+    /**
+     * 沿着查找key的路径下降，每向右走一步，就把左子树和当前节点计入结果。
+     * @param key key
+     * @param inclusive 是否把等于key的值也计入
+     * @return 小于（或小于等于）key的值的个数
+     */
+    private int countBelow(int key, boolean inclusive) {
+        int count = 0;
+        Node node = this.root;
+        while (node != null) {
+            if (node.val < key || (inclusive && node.val == key)) {
+                count += weightOf(node.left) + node.multiplicity();
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 向红黑树中加入值k的节点n。
+     * 插入的方法分为几步：
+     * 1、将值作为红色节点，插入到应该在的叶子节点处；节点颜色为红色是因为，插入红色的话，修复违规的代价会比较小。
+     *    值比当前最大值大（或比最小值小）时，插入位置一定是缓存的最右（最左）节点的右（左）孩子，不需要从root下降，
+     *    递增序号这类负载的插入因此只剩下均摊O(1)的修复。
+     * 2、因为插入之后可能会引起树的不平衡，而且要判断此次插入操作是否违反红黑树性质：
+     *    2.1 n.parent=NIL n.bro=whatever n.left=whatever n.right=whatever
+     *        这种情况下，就是把k当作根节点插入，然后变为黑色即可
+     *    2.2 n.parent!=NIL n.parent.color=black
+     *        此时的插入操作不会影响红黑性质的保持。n.bro要么为黑色节点，要么为红色节点。
+     *    2.3 n.parent!=NIL n.parent.color=red （此时必定有n.grandpa=NIL或者n.grandpa.color=black）
+     *        在n.parent是红色节点的情况下，先根据“红色不连续”性质，保持n颜色不变，令n.parent.color=black && n.grandpa.color=red
+     *        如此就引入两个新问题：
+     *          i) 自n.grandpa往下的子树中，经过n.parent的路径黑色节点数目不变；但是经过n.uncle的路径黑色节点数-1.
+     *          ii) n.grandpa由black变为red，可能会引发n.grandpa和它的父亲节点的冲突，需要内部解决或者递归向上解决。
+     *        2.3.1 n.uncle.color=red
+     *              只要令n.uncle.color = black,就可以解决问题 i)。然后递归向上解决问题 ii)。
+     *        2.3.2 n.uncle.color=black (这种情况下包括n.uncle=NIL)
+     *              这种情况下，没有办法通过直接改变颜色解决问题 i)。
+     *              2.3.2.1 三角型（折线）。所谓三角型是指n、n.parent、n.grandpa三者形成一个折线，即(n=n.parent.left &&
+     *                      n.parent=n.grandpa.right) || (n=n.parent.right && n.parent=n.grandpa.left)
+     *                      此时对n进行 (右旋) || (左旋) 操作，将其变为直线型。旋转后，由于n和n.parent关系互换，因此需要将
+     *                      两者的颜色互换，即n.color=black && n.parent.color=red。
+     *              2.3.2.2 直线型。所谓直线型是指n、n.parent、n.grandpa三者形成一条线段，即(n=n.parent.left &&
+     *                      n.parent=n.grandpa.left) || (n=n.parent.right && n.parent=n.grandpa.right)
+     *                      此时对n.parent进行 (右旋) || (左旋) 操作。由于此时n.parent是黑色，n.grandpa是红色，所以右旋之后
+     *                      局部最高点（旋转前是n.grandpa，旋转后是n.parent）的左子树路径黑色节点数目不变，而右子树路径黑色
+     *                      节点数目+1，此时就解决了问题 i)。另外，旋转后n.parent变为局部最高点，而n.parent是黑色的，所以问题
+     *                      ii) 也一并解决。
+     *
+     * @param key key
+     */
+    public void add(int key) {
+        this.addNode(key);
+    }
+
+    /**
+     * add的实现，步骤见 {@link #add(int)}。
+     * @param key key
+     * @return 值为key的节点：已存在时返回原有节点，否则返回新插入的节点。
+     */
+    final Node addNode(int key) {
+        Node t = this.root;
+        if (t == null) {
+            this.root = this.first = this.last = this.newNode(null, key);
+            this.size = 1;
+            ++this.modCount;
+            if (STATS) {
+                this.stats.inserts++;
+            }
+            return this.root;
+        } else {
+            Node parent;
+            int steps = 0;
+            if (key > this.last.val) {
+                // 比最大值还大（例如递增的序号），直接挂在最右节点下面，不用从root下降
+                parent = this.last;
+            } else if (key < this.first.val) {
+                parent = this.first;
+            } else {
+                if (this.fingerSearch) {
+                    t = this.fingerStart(key);
+                }
+                do {
+                    parent = t;
+                    if (STATS) {
+                        steps++;
+                    }
+                    if (key == t.val) {
+                        if (STATS) {
+                            this.stats.recordSearch(steps);
+                        }
+                        if (this.fingerSearch) {
+                            this.finger = t;
+                        }
+                        return t;
+                    } else if (key < t.val) {
+                        t = t.left;
+                    } else {
+                        t = t.right;
+                    }
+                } while (t != null);
+            }
+            if (STATS) {
+                this.stats.recordSearch(steps);
+                this.stats.inserts++;
+            }
+
+
+            Node e = this.newNode(parent, key);
+            if (key < parent.val) {
+                parent.left = e;
+                if (parent == this.first) {
+                    this.first = e;
+                }
+            } else {
+                parent.right = e;
+                if (parent == this.last) {
+                    this.last = e;
+                }
+            }
+            if (this.orderStatistics) {
+                // 新节点路径上的所有祖先的子树大小都+1。之后的旋转会自行维护子树大小。
+                for (Node q = parent; q != null; q = q.parent) {
+                    ++((WeightedNode) q).weight;
+                }
+            }
+
+            this.fixAfterInsertion(e);
+            if (this.size >= 0) {
+                ++this.size;
+            }
+            ++this.modCount;
+            if (this.fingerSearch) {
+                this.finger = e;
+            }
+            return e;
+        }
+    }
+
+    /**
+     * 创建一个新节点，颜色为黑色。开启顺序统计时为 {@link WeightedNode}。子类可以覆盖这个方法，创建携带额外数据的节点，
+     * 同样要根据 {@link #hasOrderStatistics()} 选择是否继承WeightedNode。
+     * @param parent 父节点
+     * @param key key
+     * @return 新节点
+     */
+    Node newNode(Node parent, int key) {
+        return this.orderStatistics ? new WeightedNode(parent, null, null, key, true) : new Node(parent, null, null, key, true);
+    }
+
+    /**
+     * 创建一棵与当前树同类型、同样设置的空树，split、join等操作用它来存放结果。
+     * @return 空树
+     */
+    RedBlackTreeFromJDK newEmptyTree() {
+        return new RedBlackTreeFromJDK(this.orderStatistics);
+    }
+
+
+    /**
+     * 批量加入一组（可以无序、可以重复的）值。先对批次排序去重，再根据批次大小和当前树大小选择：
+     * 1、批次相对于树较大时，把树的中序序列和批次做一次归并，然后用buildFromSorted线性时间重建整棵树，
+     *    代价为O(n + m)，没有任何下降和旋转；
+     * 2、批次相对于树较小时，按升序逐个add。相邻的键共享大部分查找路径，升序插入对缓存更友好。
+     * 当 m * log2(n) >= n 时，重建的代价不高于逐个插入，选择重建。
+     * @param keys 要加入的值，数组本身不会被修改
+     * @return 实际新加入的值的个数
+     */
+    public int addAll(int[] keys) {
+        int[] batch = keys.clone();
+        Arrays.sort(batch);
+        return this.addAllSorted(batch, dedupSorted(batch));
+    }
+
+    /**
+     * 与 {@link #addAll(int[])} 相同，值来自IntStream。
+     * @param keys 要加入的值
+     * @return 实际新加入的值的个数
+     */
+    public int addAll(IntStream keys) {
+        int[] batch = keys.sorted().distinct().toArray();
+        return this.addAllSorted(batch, batch.length);
+    }
+
+    /**
+     * 把升序数组中相邻的重复值去掉，返回去重后的长度。
+     */
+    private static int dedupSorted(int[] a) {
+        if (a.length == 0) {
+            return 0;
+        }
+        int n = 1;
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] != a[n - 1]) {
+                a[n++] = a[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param batch 严格升序的批次，只使用前m个
+     * @param m 批次长度
+     * @return 实际新加入的值的个数
+     */
+    private int addAllSorted(int[] batch, int m) {
+        int n = this.size();
+        if (m == 0) {
+            return 0;
+        }
+        if (n == 0) {
+            this.buildFromSorted(m, Arrays.stream(batch, 0, m).iterator());
+            return m;
+        }
+        if ((long) m * (32 - Integer.numberOfLeadingZeros(n)) >= n) {
+            // 归并树的中序序列和批次，得到新的严格升序的节点序列。原有的节点被重新链接，只为新值创建节点。
+            Node[] merged = new Node[n + m];
+            int len = 0;
+            int j = 0;
+            for (Node e = this.first; e != null; e = successor(e)) {
+                while (j < m && batch[j] < e.val) {
+                    merged[len++] = this.newNode(null, batch[j++]);
+                }
+                if (j < m && batch[j] == e.val) {
+                    j++;
+                }
+                merged[len++] = e;
+            }
+            while (j < m) {
+                merged[len++] = this.newNode(null, batch[j++]);
+            }
+            this.buildFromNodes(merged, len);
+            return len - n;
+        }
+        for (int i = 0; i < m; i++) {
+            this.add(batch[i]);
+        }
+        return this.size() - n;
+    }
+
+    /**
+     * 在红黑树中删除节点k。可以分为三步
+     * 1、寻找被删除节点p。如果不存在，则返回false；如果存在，则继续
+     * 2、寻找被删除节点p的替代节点r
+     * 3、交换删除节点p和替代节点r的值，删除r
+     * 4、删除后调整树结构。
+     * @param key key
+     * @return 如果树中不包含节点k，则返回false；如果包含，则返回true。
+     */
+    public void remove(int key) {
+        Node p = this.getNode(key);
+        if (p != null) {// 如果存在被删除节点
+            this.deleteEntry(p);
+        }
+    }
+
+    /**
+     * 将节点p从红黑树中删除，步骤见 {@link #remove(int)}。
+     * 注意：如果p有两个后代，被摘除的实际上是p的后继节点，p节点本身会保留下来并持有后继的值（见 {@link Node#copyFrom(Node)}）。
+     * @param p 要删除的节点，非null
+     */
+    final void deleteEntry(Node p) {
+        /*
+         * 以下分为几种情况：
+         * 1、删除节点有两个后代：
+         *    交换替换节点和删除节点的val，对替换节点位置的节点再进行删除操作。相当于把删除操作下放到替换节点的位置进行操作。
+         * 2、删除节点没有两个后代：
+         *    2.1、如果删除节点没有后代，即删除节点是叶子节点：
+         *         此时替换节点是NIL。如果删除节点是红色，则直接删除；如果删除节点是黑色，则进行双黑处理。
+         *    2.2、如果删除节点是root，则说明root最多有一个后代，也就是节点数最多有两个，删除操作简单。
+         *    2.3、如果删除节点只有一个后代，则该后代就是替换节点。
+         *         2.3.1、如果删除节点和替换节点不是双黑，则直接交换键值，删除替换节点。如果有一个节点是黑色，则染黑删除节点。
+         *         2.3.2、如果删除节点和替换节点是双黑，进行双黑处理。
+         *
+         * 双黑处理：
+         */
+        if (this.size > 0) {
+            --this.size;
+        }
+        ++this.modCount;
+        if (STATS) {
+            this.stats.deletes++;
+        }
+        if (this.fingerSearch) {
+            // finger移到删除后仍留在树中的相邻节点上：有两个后代时p本身保留（持有后继的值），否则为父节点或唯一的孩子
+            if (p.left != null && p.right != null) {
+                this.finger = p;
+            } else if (p.parent != null) {
+                this.finger = p.parent;
+            } else {
+                this.finger = p.left != null ? p.left : p.right;
+            }
+        }
+        Node target = p;
+        int removed = p.multiplicity();
+        Node replacement;
+        if (p.left != null && p.right != null) { // 如果被删除节点的left和right都不为空。即情况1.
+            replacement = successor(p); // successor本来可能会寻到父节点以上的节点，但是因为p.left&right!=NIL，所以一定是子节点以下的节点。
+            if (replacement == this.last) {
+                // 最大值被搬到p中，p成为新的最右节点
+                this.last = p;
+            }
+            p.copyFrom(replacement);
+            p = replacement;
+            /*
+             *    p(V1)                        p(V2)
+             *    /  \                         /   \
+             *  ...  ...          ===>>>     ...   ...
+             *       /                              /
+             *   replacement(V2)                  p(V1)
+             */
+        } else {
+            // 最左节点没有左后代，删除后新的最左节点就是它的后继；最右节点对称。有两个后代的节点不可能是最左或最右节点。
+            if (p == this.first) {
+                this.first = successor(p);
+            }
+            if (p == this.last) {
+                this.last = predecessor(p);
+            }
+        }
+        if (this.orderStatistics) {
+            // p是实际被摘除的节点，它的所有祖先的子树大小都-1。p的大小置为0，这样即使p作为叶子先参与
+            // fixAfterDeletion的旋转，重新计算出来的子树大小也不会把它算进去。
+            // 对于多重集合，target到p之间的节点减去p的出现次数，target及以上减去被删除的值的出现次数。
+            int delta = p.multiplicity();
+            for (Node q = p.parent; q != null; q = q.parent) {
+                if (q == target) {
+                    delta = removed;
+                }
+                ((WeightedNode) q).weight -= delta;
+            }
+            ((WeightedNode) p).weight = 0;
+        }
+
+        replacement = p.left != null ? p.left : p.right;
+        if (replacement != null) { // 2.3  如果删除节点只有一个后代，且该后代是替换节点。
+            // 将replacement替换p节点。
+            replacement.parent = p.parent;
+            if (p.parent == null) {
+                this.root = replacement;
+            } else if (p == p.parent.left) {
+                p.parent.left = replacement;
+            } else {
+                p.parent.right = replacement;
+            }
+
+            p.left = p.right = p.parent = null;
+            if (p.isBlack) { // 如果被删除的节点是黑色节点，则需要考虑如何保持红黑性质的问题。即解决双黑问题。
+                this.fixAfterDeletion(replacement);
+            }
+        } else if (p.parent == null) { // 2.2 如果删除节点是root，且root没有后代。因为如果有后代，就会在前面的if循环里处理。
+            this.root = null;
+        } else { // 2.1 如果删除节点没有后代，即替换节点是null
+            if (p.isBlack) {
+                this.fixAfterDeletion(p);
+            }
+            // 将节点p和红黑树脱离，完成删除。
+            if (p.parent != null) {
+                if (p == p.parent.left) {
+                    p.parent.left = null;
+                } else if (p == p.parent.right) {
+                    p.parent.right = null;
+                }
+
+                p.parent = null;
+            }
+        }
+    }
+
+
+    /**
+     * 删除闭区间[lo, hi]内的所有值。不是逐个调用remove，而是整段摘除：
+     * 1、以lo为界把树分裂为 A(<lo)、lo所在节点、B(>lo)；
+     * 2、再以hi为界把B分裂为 M(<hi)、hi所在节点、C(>hi)；
+     * 3、M以及两个边界节点就是要删除的部分，直接丢弃；A和C拼接成新的树。
+     * 分裂和拼接都是沿着路径的join操作，总代价O(log n)，只做O(log n)次旋转；统计被删除的个数需要遍历M，代价O(删除个数)。
+     * @param lo 下界（包含）
+     * @param hi 上界（包含）
+     * @return 实际删除的值的个数
+     */
+    public int removeRange(int lo, int hi) {
+        if (lo > hi || this.root == null) {
+            return 0;
+        }
+        RedBlackTreeFromJDK ws = new RedBlackTreeFromJDK(this.orderStatistics);
+        Node[] parts = new Node[3];
+        int[] heights = new int[3];
+        ws.split(this.root, blackHeight(this.root), lo, parts, heights);
+        Node a = parts[0];
+        int removed = parts[1] != null ? 1 : 0;
+        ws.split(parts[2], heights[2], hi, parts, heights);
+        removed += countNodes(parts[0]) + (parts[1] != null ? 1 : 0);
+        this.root = ws.concat(a, parts[2]);
+        if (this.size >= 0) {
+            this.size -= removed;
+        }
+        this.first = leftmost(this.root);
+        this.last = rightmost(this.root);
+        this.finger = null;
+        ++this.modCount;
+        return removed;
+    }
+
+    /**
+     * 删除所有小于k的值。
+     * @param k k
+     * @return 实际删除的值的个数
+     */
+    public int removeBelow(int k) {
+        return k == Integer.MIN_VALUE ? 0 : this.removeRange(Integer.MIN_VALUE, k - 1);
+    }
+
+    /**
+     * 删除所有大于k的值。
+     * @param k k
+     * @return 实际删除的值的个数
+     */
+    public int removeAbove(int k) {
+        return k == Integer.MAX_VALUE ? 0 : this.removeRange(k + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 批量删除一组升序（可以重复）的值。与addAll类似：
+     * 1、批次相对于树较大（m * log2(n) >= n）时，把树的中序序列和批次做一次归并，只保留不在批次中的节点，
+     *    然后用buildFromNodes重新链接，代价O(n + m)，没有任何旋转；
+     * 2、否则把批次线性时间建成一棵临时树，在当前线程里执行基于join的差集（见 {@link #difference}），
+     *    代价O(m log(n/m + 1))，每次join只在连接处做O(1)次摊还的旋转，没有逐个删除时的后继交换和fixAfterDeletion循环。
+     * @param sortedKeys 升序的值
+     * @return 实际删除的值的个数
+     */
+    public int removeAll(int[] sortedKeys) {
+        int m = sortedKeys.length;
+        for (int i = 1; i < m; i++) {
+            if (sortedKeys[i - 1] > sortedKeys[i]) {
+                throw new IllegalArgumentException("Keys are not sorted at index " + i);
+            }
+        }
+        int n = this.size();
+        if (m == 0 || n == 0) {
+            return 0;
+        }
+        if ((long) m * (32 - Integer.numberOfLeadingZeros(n)) >= n) {
+            Node[] survivors = new Node[n];
+            int len = 0;
+            int j = 0;
+            for (Node e = this.first; e != null; e = successor(e)) {
+                while (j < m && sortedKeys[j] < e.val) {
+                    j++;
+                }
+                if (j == m || sortedKeys[j] != e.val) {
+                    survivors[len++] = e;
+                }
+            }
+            if (len < n) {
+                this.buildFromNodes(survivors, len);
+            }
+            return n - len;
+        }
+        int[] keys = Arrays.copyOf(sortedKeys, m);
+        int d = dedupSorted(keys);
+        RedBlackTreeFromJDK batch = new RedBlackTreeFromJDK();
+        batch.buildFromSorted(d, Arrays.stream(keys, 0, d).iterator());
+        Node a = detachRoot(this.root);
+        // forkDepth为0，compute在当前线程里顺序递归。差集中批次的节点只用来分裂，不会进入结果。
+        SetOperation op = new SetOperation(SetOperation.DIFFERENCE, a, blackHeight(a), batch.root,
+                blackHeight(batch.root), 0, 0, this.orderStatistics);
+        Node r = op.compute();
+        this.adopt(r, n - op.matched);
+        return op.matched;
+    }
+
+    /**
+     * 以pivot为界把树分裂为两棵树：第一棵包含所有小于pivot的值，第二棵包含所有大于等于pivot的值。
+     * 节点被原样移动到两棵新树中，当前树变为空树。复杂度O(log n)。
+     * 没有开启顺序统计时，两棵新树的size()会在第一次调用时遍历统计。
+     * @param pivot 分界值
+     * @return 长度为2的数组，[0]为小于pivot的部分，[1]为大于等于pivot的部分
+     */
+    public RedBlackTreeFromJDK[] split(int pivot) {
+        RedBlackTreeFromJDK left = this.newEmptyTree();
+        RedBlackTreeFromJDK right = this.newEmptyTree();
+        Node[] parts = new Node[3];
+        int[] heights = new int[3];
+        right.split(this.root, blackHeight(this.root), pivot, parts, heights);
+        Node r = parts[1] != null ? right.join(null, 0, parts[1], parts[2], heights[2]) : parts[2];
+        left.adopt(parts[0], -1);
+        right.adopt(r, -1);
+        this.clear();
+        return new RedBlackTreeFromJDK[]{left, right};
+    }
+
+    /**
+     * 用值pivot把两棵树连接成一棵新树，要求left中所有值 < pivot < right中所有值。复杂度O(log n)。
+     * left和right的节点被移动到新树中，两者都变为空树。
+     * @param left 左侧的树
+     * @param pivot 连接值
+     * @param right 右侧的树
+     * @return 包含left、pivot和right全部值的新树
+     */
+    public static RedBlackTreeFromJDK join(RedBlackTreeFromJDK left, int pivot, RedBlackTreeFromJDK right) {
+        checkJoinable(left, right);
+        if ((left.root != null && left.getLastNode().val >= pivot)
+                || (right.root != null && right.first.val <= pivot)) {
+            throw new IllegalArgumentException("Pivot " + pivot + " does not separate the two trees");
+        }
+        RedBlackTreeFromJDK result = left.newEmptyTree();
+        Node r = result.join(left.root, blackHeight(left.root), result.newNode(null, pivot), right.root,
+                blackHeight(right.root));
+        result.adopt(r, left.size < 0 || right.size < 0 ? -1 : left.size + right.size + 1);
+        left.clear();
+        right.clear();
+        return result;
+    }
+
+    /**
+     * 把两棵树拼接成一棵新树，要求left中所有值 < right中所有值。复杂度O(log n)。
+     * left和right的节点被移动到新树中，两者都变为空树。
+     * @param left 左侧的树
+     * @param right 右侧的树
+     * @return 包含left和right全部值的新树
+     */
+    public static RedBlackTreeFromJDK concat(RedBlackTreeFromJDK left, RedBlackTreeFromJDK right) {
+        checkJoinable(left, right);
+        if (left.root != null && right.root != null && left.getLastNode().val >= right.first.val) {
+            throw new IllegalArgumentException("The trees overlap");
+        }
+        RedBlackTreeFromJDK result = left.newEmptyTree();
+        Node r = result.concat(left.root, right.root);
+        result.adopt(r, left.size < 0 || right.size < 0 ? -1 : left.size + right.size);
+        left.clear();
+        right.clear();
+        return result;
+    }
+
+    /**
+     * 并集。基于join的并行算法：取a的根k，用k.val分裂b，得到b中小于k和大于k的两部分，
+     * 分别与a的左右子树递归求并集（两个递归在ForkJoinPool上并行执行），最后用k把两个结果join起来。
+     * 总工作量O(m log(n/m + 1))（m <= n为两棵树的大小），跨度为O(log^2 n)。
+     * a和b的节点被移动到结果中，两者都变为空树。
+     * @return 包含a、b全部值的新树
+     */
+    public static RedBlackTreeFromJDK union(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b) {
+        return union(a, b, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定的ForkJoinPool上求并集，见 {@link #union(RedBlackTreeFromJDK, RedBlackTreeFromJDK)}。
+     */
+    public static RedBlackTreeFromJDK union(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b, ForkJoinPool pool) {
+        return setOperation(SetOperation.UNION, a, b, pool);
+    }
+
+    /**
+     * 交集。与并集类似，用a的根k分裂b，递归求左右两侧的交集；只有当b中也存在k.val时才用k把结果join起来，
+     * 否则直接concat。a和b都变为空树。
+     * @return 同时在a和b中的值组成的新树
+     */
+    public static RedBlackTreeFromJDK intersection(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b) {
+        return intersection(a, b, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定的ForkJoinPool上求交集，见 {@link #intersection(RedBlackTreeFromJDK, RedBlackTreeFromJDK)}。
+     */
+    public static RedBlackTreeFromJDK intersection(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b, ForkJoinPool pool) {
+        return setOperation(SetOperation.INTERSECTION, a, b, pool);
+    }
+
+    /**
+     * 差集a - b。用b的根k分裂a，丢弃a中等于k.val的节点，左右两侧分别减去b的左右子树，结果concat起来。
+     * a和b都变为空树。
+     * @return 在a中但不在b中的值组成的新树
+     */
+    public static RedBlackTreeFromJDK difference(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b) {
+        return difference(a, b, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定的ForkJoinPool上求差集，见 {@link #difference(RedBlackTreeFromJDK, RedBlackTreeFromJDK)}。
+     */
+    public static RedBlackTreeFromJDK difference(RedBlackTreeFromJDK a, RedBlackTreeFromJDK b, ForkJoinPool pool) {
+        return setOperation(SetOperation.DIFFERENCE, a, b, pool);
+    }
+
+    private static RedBlackTreeFromJDK setOperation(int op, RedBlackTreeFromJDK a, RedBlackTreeFromJDK b,
+                                                    ForkJoinPool pool) {
+        checkJoinable(a, b);
+        // 并行的层数：大约每个工作线程分到几个任务，再往下就在当前线程里顺序递归。
+        int forkDepth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 2;
+        Node ra = detachRoot(a.root);
+        Node rb = detachRoot(b.root);
+        Node r = pool.invoke(new SetOperation(op, ra, blackHeight(ra), rb, blackHeight(rb), 0, forkDepth,
+                a.orderStatistics));
+        RedBlackTreeFromJDK result = a.newEmptyTree();
+        result.adopt(r, -1);
+        a.clear();
+        b.clear();
+        return result;
+    }
+
+    /**
+     * 并集、交集、差集的递归任务。每个任务只操作自己的两棵子树（parent均为null），并使用自己的工作区对象，
+     * 所以两个子任务可以安全地并行执行。两棵子树的黑高随任务一起传递，结果的黑高记在height中，供上一层join使用。
+     */
+    private static final class SetOperation extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        static final int UNION = 0;
+        static final int INTERSECTION = 1;
+        static final int DIFFERENCE = 2;
+
+        private final int op;
+        private final Node a;
+        private final int ha;
+        private final Node b;
+        private final int hb;
+        private final int depth;
+        private final int forkDepth;
+        private final boolean orderStatistics;
+        /**
+         * 结果子树的黑高，以及交集、差集中两棵树共有的值的个数，compute返回后有效。
+         */
+        private int height;
+        private int matched;
+
+        SetOperation(int op, Node a, int ha, Node b, int hb, int depth, int forkDepth, boolean orderStatistics) {
+            this.op = op;
+            this.a = a;
+            this.ha = ha;
+            this.b = b;
+            this.hb = hb;
+            this.depth = depth;
+            this.forkDepth = forkDepth;
+            this.orderStatistics = orderStatistics;
+        }
+
+        @Override
+        protected Node compute() {
+            if (this.a == null) {
+                this.height = this.op == UNION ? this.hb : 0;
+                return this.op == UNION ? this.b : null;
+            }
+            if (this.b == null) {
+                this.height = this.op == INTERSECTION ? 0 : this.ha;
+                return this.op == INTERSECTION ? null : this.a;
+            }
+            RedBlackTreeFromJDK ws = new RedBlackTreeFromJDK(this.orderStatistics);
+            // 并集和交集用a的根去分裂b，差集用b的根去分裂a。
+            Node k = this.op == DIFFERENCE ? this.b : this.a;
+            int hk = this.op == DIFFERENCE ? this.hb : this.ha;
+            Node other = this.op == DIFFERENCE ? this.a : this.b;
+            int hOther = this.op == DIFFERENCE ? this.ha : this.hb;
+            // k是黑色的根，两个孩子的黑高为hk - 1，红色的孩子摘下来染黑后再+1
+            int hkl = detachedHeight(k.left, hk - 1);
+            int hkr = detachedHeight(k.right, hk - 1);
+            Node kl = detachRoot(k.left);
+            Node kr = detachRoot(k.right);
+            Node[] parts = new Node[3];
+            int[] heights = new int[3];
+            ws.split(other, hOther, k.val, parts, heights);
+
+            SetOperation left;
+            SetOperation right;
+            if (this.op == DIFFERENCE) {
+                left = new SetOperation(this.op, parts[0], heights[0], kl, hkl, this.depth + 1, this.forkDepth,
+                        this.orderStatistics);
+                right = new SetOperation(this.op, parts[2], heights[2], kr, hkr, this.depth + 1, this.forkDepth,
+                        this.orderStatistics);
+            } else {
+                left = new SetOperation(this.op, kl, hkl, parts[0], heights[0], this.depth + 1, this.forkDepth,
+                        this.orderStatistics);
+                right = new SetOperation(this.op, kr, hkr, parts[2], heights[2], this.depth + 1, this.forkDepth,
+                        this.orderStatistics);
+            }
+            Node l;
+            Node r;
+            if (this.depth < this.forkDepth) {
+                right.fork();
+                l = left.compute();
+                r = right.join();
+            } else {
+                l = left.compute();
+                r = right.compute();
+            }
+
+            this.matched = left.matched + right.matched + (parts[1] != null ? 1 : 0);
+            Node result;
+            if (this.op == UNION || (this.op == INTERSECTION && parts[1] != null)) {
+                result = ws.join(l, left.height, k, r, right.height);
+            } else {
+                result = ws.concat(l, r);
+            }
+            this.height = ws.joinedBlackHeight;
+            return result;
+        }
+    }
+
+    private static void checkJoinable(RedBlackTreeFromJDK left, RedBlackTreeFromJDK right) {
+        if (left == right) {
+            throw new IllegalArgumentException("Cannot join a tree with itself");
+        }
+        if (left.getClass() != right.getClass()) {
+            throw new IllegalArgumentException("Both trees must be of the same type");
+        }
+        if (left.orderStatistics != right.orderStatistics) {
+            throw new IllegalArgumentException("Both trees must have the same order statistics setting");
+        }
+    }
+
+    /**
+     * 以子树r作为当前树的全部内容。
+     * @param r 脱离了原来的树的子树根
+     * @param size 节点数目，-1表示未知。开启顺序统计时直接取根的子树大小（多重集合除外，它的子树大小是出现次数之和）。
+     */
+    private void adopt(Node r, int size) {
+        this.root = detachRoot(r);
+        this.size = this.orderStatistics && !this.countsMultiplicity() ? weightOf(r) : size;
+        this.first = leftmost(r);
+        this.last = rightmost(r);
+        this.finger = null;
+        ++this.modCount;
+    }
+
+    /***************************************************************************************************************/
+    /*
+     * 以下是基于join的分裂与拼接操作，它们直接操作脱离了树的子树（parent为null的节点），
+     * 调用时把当前对象当作工作区：rotateLeft/rotateRight和fixAfterInsertion会改写this.root，
+     * 所以调用者应当使用一个临时的工作区对象，并在结束后自己设置root、size和first。
+     */
+
+    /**
+     * 用节点k把两棵子树l和r连接起来，要求 l中所有值 < k.val < r中所有值。
+     * 设l和r的黑高分别为bl、br，不妨设bl >= br：
+     * 沿着l的右边界往下走，找到第一个黑高等于br的黑色节点c，用红色的k替换c的位置，令k.left=c，k.right=r。
+     * 此时经过k的每条路径的黑色节点数目与原来经过c的相同，只可能出现k和它的父亲都是红色的冲突，
+     * 这和插入一个红色节点的情况完全一样，交给fixAfterInsertion处理即可。bl < br时对称地沿r的左边界往下走。
+     * 黑高由调用者传入，不再沿边界重新统计，所以复杂度为O(|bl - br| + 1)。
+     * 结果的黑高为max(bl, br)，fixAfterInsertion最后把红色的根染黑时再+1，记在joinedBlackHeight中。
+     * @param l 左子树，可以为null
+     * @param hl l的黑高（按l的根当前的颜色计算）
+     * @param k 连接节点，会被重置
+     * @param r 右子树，可以为null
+     * @param hr r的黑高（按r的根当前的颜色计算）
+     * @return 新的根
+     */
+    private Node join(Node l, int hl, Node k, Node r, int hr) {
+        int bl = detachedHeight(l, hl);
+        int br = detachedHeight(r, hr);
+        detachRoot(l);
+        detachRoot(r);
+        k.left = k.right = k.parent = null;
+        if (bl >= br) {
+            Node parent = null;
+            Node c = l;
+            int h = bl;
+            while (c != null && (h > br || !c.isBlack)) {
+                parent = c;
+                if (c.isBlack) {
+                    h--;
+                }
+                c = c.right;
+            }
+            k.left = c;
+            k.right = r;
+            this.link(parent, k, false);
+            this.root = parent == null ? k : l;
+        } else {
+            Node parent = null;
+            Node c = r;
+            int h = br;
+            while (c != null && (h > bl || !c.isBlack)) {
+                parent = c;
+                if (c.isBlack) {
+                    h--;
+                }
+                c = c.left;
+            }
+            k.left = l;
+            k.right = c;
+            this.link(parent, k, true);
+            this.root = r;
+        }
+        boolean grew = this.fixAfterInsertion(k);
+        this.joinedBlackHeight = Math.max(bl, br) + (grew ? 1 : 0);
+        return this.root;
+    }
+
+    /**
+     * join的辅助函数：设置k和它两个孩子之间的parent链接，把k挂到parent下面，并把增加的节点数目累加到所有祖先上。
+     * k取代的是parent原来的孩子（现在挂在k的另一侧），所以增加的是k和与它同侧的子树。
      */
-    private Node getNode(int k) {
-        Node node = root;
-        while (node != null) {
-            if (node.val == k)
-                return node;
-            if (node.val < k)
-                node = node.right;
-            else
-                node = node.left;
+    private void link(Node parent, Node k, boolean asLeft) {
+        if (k.left != null) {
+            k.left.parent = k;
+        }
+        if (k.right != null) {
+            k.right.parent = k;
+        }
+        k.parent = parent;
+        if (parent != null) {
+            if (asLeft) {
+                parent.left = k;
+            } else {
+                parent.right = k;
+            }
+        }
+        if (this.orderStatistics) {
+            int added = weightOf(asLeft ? k.left : k.right) + k.multiplicity();
+            ((WeightedNode) k).weight = weightOf(k.left) + weightOf(k.right) + k.multiplicity();
+            for (Node q = parent; q != null; q = q.parent) {
+                ((WeightedNode) q).weight += added;
+            }
         }
-        return null;
     }
 
-    public boolean contains(int key) {
-        return this.getNode(key) != null;
+    /**
+     * 不借助额外节点拼接两棵子树，要求 l中所有值 < r中所有值。从r中摘下最小节点作为join的连接节点。
+     * 找最小节点本身就要走一遍r的左边界，删除后r的黑高也可能减少，所以这里直接重新统计两侧的黑高，复杂度O(log n)。
+     * 结果的黑高记在joinedBlackHeight中。
+     * @return 新的根
+     */
+    private Node concat(Node l, Node r) {
+        if (l == null || r == null) {
+            Node t = detachRoot(l == null ? r : l);
+            this.joinedBlackHeight = blackHeight(t);
+            return t;
+        }
+        this.root = detachRoot(r);
+        Node m = leftmost(r);
+        // m是最左节点，没有左后代，deleteEntry摘除的正是m本身。
+        this.deleteEntry(m);
+        return this.join(l, blackHeight(detachRoot(l)), m, this.root, blackHeight(this.root));
     }
 
     /**
-     * 向红黑树中加入值k的节点n。
-     * 插入的方法分为几步：
-     * 1、将值作为红色节点，插入到应该在的叶子节点处；节点颜色为红色是因为，插入红色的话，修复违规的代价会比较小。
-     * 2、因为插入之后可能会引起树的不平衡，而且要判断此次插入操作是否违反红黑树性质：
-     *    2.1 n.parent=NIL n.bro=whatever n.left=whatever n.right=whatever
-     *        这种情况下，就是把k当作根节点插入，然后变为黑色即可
-     *    2.2 n.parent!=NIL n.parent.color=black
-     *        此时的插入操作不会影响红黑性质的保持。n.bro要么为黑色节点，要么为红色节点。
-     *    2.3 n.parent!=NIL n.parent.color=red （此时必定有n.grandpa=NIL或者n.grandpa.color=black）
-     *        在n.parent是红色节点的情况下，先根据“红色不连续”性质，保持n颜色不变，令n.parent.color=black && n.grandpa.color=red
-     *        如此就引入两个新问题：
-     *          i) 自n.grandpa往下的子树中，经过n.parent的路径黑色节点数目不变；但是经过n.uncle的路径黑色节点数-1.
-     *          ii) n.grandpa由black变为red，可能会引发n.grandpa和它的父亲节点的冲突，需要内部解决或者递归向上解决。
-     *        2.3.1 n.uncle.color=red
-     *              只要令n.uncle.color = black,就可以解决问题 i)。然后递归向上解决问题 ii)。
-     *        2.3.2 n.uncle.color=black (这种情况下包括n.uncle=NIL)
-     *              这种情况下，没有办法通过直接改变颜色解决问题 i)。
-     *              2.3.2.1 三角型（折线）。所谓三角型是指n、n.parent、n.grandpa三者形成一个折线，即(n=n.parent.left &&
-     *                      n.parent=n.grandpa.right) || (n=n.parent.right && n.parent=n.grandpa.left)
-     *                      此时对n进行 (右旋) || (左旋) 操作，将其变为直线型。旋转后，由于n和n.parent关系互换，因此需要将
-     *                      两者的颜色互换，即n.color=black && n.parent.color=red。
-     *              2.3.2.2 直线型。所谓直线型是指n、n.parent、n.grandpa三者形成一条线段，即(n=n.parent.left &&
-     *                      n.parent=n.grandpa.left) || (n=n.parent.right && n.parent=n.grandpa.right)
-     *                      此时对n.parent进行 (右旋) || (左旋) 操作。由于此时n.parent是黑色，n.grandpa是红色，所以右旋之后
-     *                      局部最高点（旋转前是n.grandpa，旋转后是n.parent）的左子树路径黑色节点数目不变，而右子树路径黑色
-     *                      节点数目+1，此时就解决了问题 i)。另外，旋转后n.parent变为局部最高点，而n.parent是黑色的，所以问题
-     *                      ii) 也一并解决。
-     *
-     * @param key key
+     * 以key为界分裂子树t：out[0]为所有小于key的值组成的子树，out[1]为值等于key的节点（不存在时为null），
+     * out[2]为所有大于key的值组成的子树。沿着查找key的路径自底向上，把路径两侧的子树依次join起来。
+     * 路径两侧子树的黑高由t的黑高沿路径往下推出，join结果的黑高由join算出，都不需要重新统计；
+     * 每次join的代价是两侧黑高之差，沿路径累加后互相抵消，总代价O(log n)。
+     * @param t 子树的根，可以为null
+     * @param h t的黑高（按t当前的颜色计算）
+     * @param key 分界值
+     * @param out 长度为3的结果数组
+     * @param heights 长度为3的数组，heights[0]、heights[2]为out[0]、out[2]的黑高
      */
-    public void add(int key) {
-        Node t = this.root;
+    private void split(Node t, int h, int key, Node[] out, int[] heights) {
         if (t == null) {
-            this.root = new Node(null, null, null, key, true);
-            this.size = 1;
-        } else {
-            Node parent;
-            do {
-                parent = t;
-                if (key == t.val) {
-                    return;
-                } else if (key < t.val) {
-                    t = t.left;
-                } else {
-                    t = t.right;
-                }
-            } while(t != null);
-
-
-            Node e = new Node(parent, null, null, key, true);
-            if (key < parent.val) {
-                parent.left = e;
-            } else {
-                parent.right = e;
+            out[0] = out[1] = out[2] = null;
+            heights[0] = heights[2] = 0;
+            return;
+        }
+        Node l = t.left;
+        Node r = t.right;
+        // 孩子的黑高，必须在t被join改写颜色之前计算
+        int hc = t.isBlack ? h - 1 : h;
+        if (key == t.val) {
+            heights[0] = detachedHeight(l, hc);
+            heights[2] = detachedHeight(r, hc);
+            out[0] = detachRoot(l);
+            out[1] = t;
+            out[2] = detachRoot(r);
+            t.left = t.right = t.parent = null;
+            if (this.orderStatistics) {
+                ((WeightedNode) t).weight = t.multiplicity();
             }
+        } else if (key < t.val) {
+            this.split(l, hc, key, out, heights);
+            out[2] = this.join(out[2], heights[2], t, r, hc);
+            heights[2] = this.joinedBlackHeight;
+        } else {
+            this.split(r, hc, key, out, heights);
+            out[0] = this.join(l, hc, t, out[0], heights[0]);
+            heights[0] = this.joinedBlackHeight;
+        }
+    }
 
-            this.fixAfterInsertion(e);
-            ++this.size;
+    /**
+     * 把子树t从原来的父节点上摘下来，作为一棵独立的红黑树：parent置为null，根染黑。
+     * 根由红变黑只会让所有路径的黑色节点数目同时+1，红黑性质依然成立。
+     * @return t
+     */
+    private static Node detachRoot(Node t) {
+        if (t != null) {
+            t.parent = null;
+            t.isBlack = true;
         }
+        return t;
     }
 
+    /**
+     * 黑高为h的子树t经过detachRoot之后的黑高：红色的根被染黑，黑高+1。
+     */
+    private static int detachedHeight(Node t, int h) {
+        return t != null && !t.isBlack ? h + 1 : h;
+    }
 
     /**
-     * 在红黑树中删除节点k。可以分为三步
-     * 1、寻找被删除节点p。如果不存在，则返回false；如果存在，则继续
-     * 2、寻找被删除节点p的替代节点r
-     * 3、交换删除节点p和替代节点r的值，删除r
-     * 4、删除后调整树结构。
-     * @param key key
-     * @return 如果树中不包含节点k，则返回false；如果包含，则返回true。
+     * 子树t的黑高：从t沿左边界走到NIL经过的黑色节点数目（包括t本身）。复杂度O(log n)，只在入口处调用一次。
      */
-    public void remove(int key) {
-        Node p = this.getNode(key);
-        if (p != null) {// 如果存在被删除节点
-            /*
-             * 以下分为几种情况：
-             * 1、删除节点有两个后代：
-             *    交换替换节点和删除节点的val，对替换节点位置的节点再进行删除操作。相当于把删除操作下放到替换节点的位置进行操作。
-             * 2、删除节点没有两个后代：
-             *    2.1、如果删除节点没有后代，即删除节点是叶子节点：
-             *         此时替换节点是NIL。如果删除节点是红色，则直接删除；如果删除节点是黑色，则进行双黑处理。
-             *    2.2、如果删除节点是root，则说明root最多有一个后代，也就是节点数最多有两个，删除操作简单。
-             *    2.3、如果删除节点只有一个后代，则该后代就是替换节点。
-             *         2.3.1、如果删除节点和替换节点不是双黑，则直接交换键值，删除替换节点。如果有一个节点是黑色，则染黑删除节点。
-             *         2.3.2、如果删除节点和替换节点是双黑，进行双黑处理。
-             *
-             * 双黑处理：
-             */
-            --this.size;
-            Node replacement;
-            if (p.left != null && p.right != null) { // 如果被删除节点的left和right都不为空。即情况1.
-                replacement = successor(p); // successor本来可能会寻到父节点以上的节点，但是因为p.left&right!=NIL，所以一定是子节点以下的节点。
-                p.val = replacement.val;
-                p = replacement;
-                /*
-                 *    p(V1)                        p(V2)
-                 *    /  \                         /   \
-                 *  ...  ...          ===>>>     ...   ...
-                 *       /                              /
-                 *   replacement(V2)                  p(V1)
-                 */
+    private static int blackHeight(Node t) {
+        int h = 0;
+        for (Node p = t; p != null; p = p.left) {
+            if (p.isBlack) {
+                h++;
             }
+        }
+        return h;
+    }
 
-            replacement = p.left != null ? p.left : p.right;
-            if (replacement != null) { // 2.3  如果删除节点只有一个后代，且该后代是替换节点。
-                // 将replacement替换p节点。
-                replacement.parent = p.parent;
-                if (p.parent == null) {
-                    this.root = replacement;
-                } else if (p == p.parent.left) {
-                    p.parent.left = replacement;
-                } else {
-                    p.parent.right = replacement;
-                }
-
-                p.left = p.right = p.parent = null;
-                if (p.isBlack) { // 如果被删除的节点是黑色节点，则需要考虑如何保持红黑性质的问题。即解决双黑问题。
-                    this.fixAfterDeletion(replacement);
-                }
-            } else if (p.parent == null) { // 2.2 如果删除节点是root，且root没有后代。因为如果有后代，就会在前面的if循环里处理。
-                this.root = null;
-            } else { // 2.1 如果删除节点没有后代，即替换节点是null
-                if (p.isBlack) {
-                    this.fixAfterDeletion(p);
-                }
-                // 将节点p和红黑树脱离，完成删除。
-                if (p.parent != null) {
-                    if (p == p.parent.left) {
-                        p.parent.left = null;
-                    } else if (p == p.parent.right) {
-                        p.parent.right = null;
-                    }
+    /**
+     * @return 子树t中最左的节点，t为null时返回null。
+     */
+    private static Node leftmost(Node t) {
+        if (t != null) {
+            while (t.left != null) {
+                t = t.left;
+            }
+        }
+        return t;
+    }
 
-                    p.parent = null;
-                }
+    /**
+     * @return 子树t中最右的节点，t为null时返回null。
+     */
+    private static Node rightmost(Node t) {
+        if (t != null) {
+            while (t.right != null) {
+                t = t.right;
             }
         }
+        return t;
+    }
+
+    /**
+     * 统计子树t的节点数目，复杂度O(子树大小)。
+     */
+    private static int countNodes(Node t) {
+        int n = 0;
+        Node stop = t == null ? null : t.parent;
+        for (Node e = leftmost(t); e != stop; e = successor(e)) {
+            n++;
+        }
+        return n;
     }
 
 
@@ -190,6 +1447,153 @@ public class RedBlackTreeFromJDK {
     public void clear() {
         this.size = 0;
         this.root = null;
+        this.first = null;
+        this.last = null;
+        this.finger = null;
+        ++this.modCount;
+    }
+
+    /**
+     * 用严格升序的数组sorted[from, to)构建红黑树，复杂度O(n)，不做任何旋转。只能在空树上调用（例如新建或clear()之后）。
+     * 构建方法与TreeMap.buildFromSorted相同：每次取中点作为子树的根，递归构建左右子树，得到一棵完全平衡的二叉树；
+     * 除了最底层（可能不满的那一层）染红以外，其余节点全部为黑色，这样每条路径的黑色节点数目都相同。
+     * @param sorted 严格升序的数组
+     * @param from 起始下标（包含）
+     * @param to 结束下标（不包含）
+     */
+    public void bulkLoad(int[] sorted, int from, int to) {
+        if (from < 0 || to > sorted.length || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + sorted.length);
+        }
+        if (this.root != null) {
+            throw new IllegalStateException("bulkLoad requires an empty tree");
+        }
+        for (int i = from + 1; i < to; i++) {
+            if (sorted[i - 1] >= sorted[i]) {
+                throw new IllegalArgumentException("Keys are not strictly increasing at index " + i);
+            }
+        }
+        this.buildFromSorted(to - from, Arrays.stream(sorted, from, to).iterator());
+    }
+
+    /**
+     * 等价于 bulkLoad(sorted, 0, sorted.length)。
+     * @param sorted 严格升序的数组
+     */
+    public void bulkLoad(int[] sorted) {
+        this.bulkLoad(sorted, 0, sorted.length);
+    }
+
+    /**
+     * 把所有值按升序写入ch，格式见 {@link SnapshotCodec}：值之间的差用varint编码，每4096个值为一块，每块带CRC32校验。
+     * 只缓存一个块，内存占用与树的大小无关。映射的值和多重集合的出现次数不会被写入。
+     * @param ch 输出通道，不会被关闭
+     * @throws IOException 写入失败
+     */
+    public void writeTo(WritableByteChannel ch) throws IOException {
+        SnapshotCodec.write(this, ch);
+    }
+
+    /**
+     * 从ch读取writeTo写入的快照，替换当前的全部内容。读取的值直接流入buildFromSorted，复杂度O(n)，
+     * 除了节点本身只缓存一个块。读取或校验失败时抛出IOException，当前内容保持不变。
+     * @param ch 输入通道，不会被关闭；读取到快照末尾为止
+     * @throws IOException 读取失败、格式错误或校验和不符
+     */
+    public void readFrom(ReadableByteChannel ch) throws IOException {
+        SnapshotCodec.Reader reader = new SnapshotCodec.Reader(ch);
+        try {
+            this.buildFromSorted(reader.count(), reader);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 从升序迭代器中依次读取size个值，构建整棵树并替换当前内容。调用者负责保证值严格升序。
+     * @param size 值的个数
+     * @param it 升序迭代器
+     */
+    void buildFromSorted(int size, PrimitiveIterator.OfInt it) {
+        this.adoptBuilt(size == 0 ? null : this.buildFromSorted(0, 0, size - 1, computeRedLevel(size), it, null), size);
+    }
+
+    /**
+     * 把已按升序排列的节点nodes[0, size)重新链接成一棵完全平衡的树，并替换当前内容。节点原有的链接和颜色都会被重置。
+     * @param nodes 升序排列的节点
+     * @param size 节点个数
+     */
+    final void buildFromNodes(Node[] nodes, int size) {
+        this.adoptBuilt(size == 0 ? null : this.buildFromSorted(0, 0, size - 1, computeRedLevel(size), null, nodes), size);
+    }
+
+    private void adoptBuilt(Node r, int size) {
+        this.root = r;
+        this.size = size;
+        this.finger = null;
+        this.first = leftmost(r);
+        this.last = rightmost(r);
+        ++this.modCount;
+    }
+
+    /**
+     * 递归构建[lo, hi]这一段，必须先构建左子树再取中点的值，才能按升序消费迭代器。
+     * @param level 当前层数，root为0
+     * @param lo 本段第一个元素的序号
+     * @param hi 本段最后一个元素的序号
+     * @param redLevel 需要染红的层数
+     * @param it 升序迭代器，为null时改用nodes
+     * @param nodes 按序号排列的现有节点，为null时从it读取值并创建新节点
+     * @return 本段子树的根
+     */
+    private Node buildFromSorted(int level, int lo, int hi, int redLevel, PrimitiveIterator.OfInt it, Node[] nodes) {
+        int mid = (lo + hi) >>> 1;
+        Node left = null;
+        if (lo < mid) {
+            left = this.buildFromSorted(level + 1, lo, mid - 1, redLevel, it, nodes);
+        }
+        Node middle = nodes != null ? nodes[mid] : this.newNode(null, it.nextInt());
+        middle.parent = middle.right = null;
+        middle.left = left;
+        middle.isBlack = level != redLevel;
+        if (left != null) {
+            left.parent = middle;
+        }
+        if (mid < hi) {
+            Node right = this.buildFromSorted(level + 1, mid + 1, hi, redLevel, it, nodes);
+            middle.right = right;
+            right.parent = middle;
+        }
+        if (this.orderStatistics) {
+            ((WeightedNode) middle).weight = weightOf(middle.left) + weightOf(middle.right) + middle.multiplicity();
+        }
+        return middle;
+    }
+
+    /**
+     * 计算完全平衡二叉树中需要染红的层数，也就是最底层（从0开始计数）。
+     * 节点数为size时，满层的层数为floor(log2(size+1))，如果还有剩余的节点，它们位于下一层，这一层染红。
+     * @param size 节点数目
+     * @return 需要染红的层数
+     */
+    private static int computeRedLevel(int size) {
+        return 31 - Integer.numberOfLeadingZeros(size + 1);
+    }
+
+    /**
+     * 返回最左节点，即值最小的节点。
+     * @return 树为空时返回null。
+     */
+    final Node getFirstNode() {
+        return this.first;
+    }
+
+    /**
+     * 返回最右节点，即值最大的节点。
+     * @return 树为空时返回null。
+     */
+    final Node getLastNode() {
+        return this.last;
     }
 
     /**
@@ -294,6 +1698,38 @@ public class RedBlackTreeFromJDK {
         return p == null ? null : p.right;
     }
 
+    /**
+     * 子树p的节点数目。如果p==null，则为0。只能在开启了顺序统计的树上调用。
+     * @param p 节点
+     * @return 返回p的子树大小。
+     */
+    private static int weightOf(Node p) {
+        return p == null ? 0 : ((WeightedNode) p).weight;
+    }
+
+    /**
+     * @return 根的子树大小，即所有节点的multiplicity()之和。只有开启了顺序统计时才有意义。
+     */
+    final int totalWeight() {
+        return weightOf(this.root);
+    }
+
+    /**
+     * 把节点p的出现次数改变delta后，更新p及其所有祖先的子树大小。供多重集合使用。
+     */
+    final void adjustWeights(Node p, int delta) {
+        for (Node q = p; q != null; q = q.parent) {
+            ((WeightedNode) q).weight += delta;
+        }
+    }
+
+    /**
+     * 子树大小是否计入节点的出现次数（即节点的multiplicity()可能大于1）。为true时子树大小不等于节点数目。
+     */
+    boolean countsMultiplicity() {
+        return false;
+    }
+
     /**
      * 对节点p和p.right进行左旋操作：
      *        p.parent（可以不存在）          p.parent
@@ -311,6 +1747,9 @@ public class RedBlackTreeFromJDK {
      */
     private void rotateLeft(Node p) {
         if (p != null) {
+            if (STATS) {
+                this.stats.rotateLeft++;
+            }
             Node r = p.right;
             p.right = r.left;
             if (r.left != null) {
@@ -328,6 +1767,10 @@ public class RedBlackTreeFromJDK {
 
             r.left = p;
             p.parent = r;
+            if (this.orderStatistics) {
+                ((WeightedNode) r).weight = weightOf(p);
+                ((WeightedNode) p).weight = weightOf(p.left) + weightOf(p.right) + p.multiplicity();
+            }
         }
 
     }
@@ -349,6 +1792,9 @@ public class RedBlackTreeFromJDK {
      */
     private void rotateRight(Node p) {
         if (p != null) {
+            if (STATS) {
+                this.stats.rotateRight++;
+            }
             Node l = p.left;
             p.left = l.right;
             if (l.right != null) {
@@ -366,16 +1812,27 @@ public class RedBlackTreeFromJDK {
 
             l.right = p;
             p.parent = l;
+            if (this.orderStatistics) {
+                ((WeightedNode) l).weight = weightOf(p);
+                ((WeightedNode) p).weight = weightOf(p.left) + weightOf(p.right) + p.multiplicity();
+            }
         }
 
     }
 
-    private void fixAfterInsertion(Node x) {
+    /**
+     * 插入红色节点x之后的调整。
+     * @return 最后是否把红色的root染成了黑色，也就是整棵树的黑高是否+1，join用它来得到结果的黑高
+     */
+    private boolean fixAfterInsertion(Node x) {
         x.isBlack = false;// 先令x的颜色为红色。所有插入节点默认都为红色，这样的调整代价比较小。
         // 如果节点非NIL，非root，并且父节点是红色，则需要进行调整；
         // 否则，无需调整。
 
         while(x != null && x != this.root && !x.parent.isBlack) {
+            if (STATS) {
+                this.stats.insertLoops++;
+            }
             Node y;
             if (parentOf(x) == leftOf(parentOf(parentOf(x)))) { // 如果是x.parent是x.grandpa的左儿子
                 y = rightOf(parentOf(parentOf(x)));
@@ -398,6 +1855,10 @@ public class RedBlackTreeFromJDK {
                      *
                      * 然后令 x -> x.parent.parent，继续向上做检测。
                      */
+                    if (STATS) {
+                        this.stats.insertUncleRed++;
+                        this.stats.recolors += 3;
+                    }
                     setColor(parentOf(x), true);
                     setColor(y, true);
                     setColor(parentOf(parentOf(x)), false);
@@ -412,6 +1873,9 @@ public class RedBlackTreeFromJDK {
                          *        \                                     /
                          *       x(红)                           x.parent(红)
                          */
+                        if (STATS) {
+                            this.stats.insertZigzag++;
+                        }
                         x = parentOf(x);
                         this.rotateLeft(x);
                     }
@@ -425,6 +1889,10 @@ public class RedBlackTreeFromJDK {
                      *
                      * 处理之后，红黑树性质修复成功。
                      */
+                    if (STATS) {
+                        this.stats.insertLine++;
+                        this.stats.recolors += 2;
+                    }
                     setColor(parentOf(x), true);
                     setColor(parentOf(parentOf(x)), false);
                     this.rotateRight(parentOf(parentOf(x)));
@@ -450,6 +1918,10 @@ public class RedBlackTreeFromJDK {
                      *
                      * 然后令 x -> x.parent.parent，继续向上做检测。
                      */
+                    if (STATS) {
+                        this.stats.insertUncleRed++;
+                        this.stats.recolors += 3;
+                    }
                     setColor(parentOf(x), true);
                     setColor(y, true);
                     setColor(parentOf(parentOf(x)), false);
@@ -464,6 +1936,9 @@ public class RedBlackTreeFromJDK {
                          *              /                                                \
                          *            x(红)                                          x.parent(红)
                          */
+                        if (STATS) {
+                            this.stats.insertZigzag++;
+                        }
                         x = parentOf(x);
                         this.rotateRight(x);
                     }
@@ -475,6 +1950,10 @@ public class RedBlackTreeFromJDK {
                      *              \                            \                            /
                      *             x(红)                         x(红)                      y(黑)
                      */
+                    if (STATS) {
+                        this.stats.insertLine++;
+                        this.stats.recolors += 2;
+                    }
                     setColor(parentOf(x), true);
                     setColor(parentOf(parentOf(x)), false);
                     this.rotateLeft(parentOf(parentOf(x)));
@@ -482,7 +1961,9 @@ public class RedBlackTreeFromJDK {
             }
         }
         // 最后，确保root是黑色，因为前面有可能会改变root颜色。
+        boolean grew = !this.root.isBlack;
         this.root.isBlack = true;
+        return grew;
     }
 
 
@@ -492,10 +1973,17 @@ public class RedBlackTreeFromJDK {
      */
     private void fixAfterDeletion(Node x) {
         while(x != this.root && colorOf(x)) { // 如果x非root节点，且颜色是黑色，就需要继续做修复
+            if (STATS) {
+                this.stats.deleteLoops++;
+            }
             Node bro; // 定义x的兄弟节点。该节点可能是null。
             if (x == leftOf(parentOf(x))) { // 如果x是父节点的左子节点
                 bro = rightOf(parentOf(x));
                 if (!colorOf(bro)) { // 如果bro节点是红色节点，一定不为null。则染红父亲，染黑bro，然后旋转。这样把新的bro变为黑色
+                    if (STATS) {
+                        this.stats.deleteSiblingRed++;
+                        this.stats.recolors += 2;
+                    }
                     /*
                      * 下述的操作如下：
                      * x.parent(黑)  变色      x.parent(红)  左旋          bro(黑)
@@ -514,6 +2002,10 @@ public class RedBlackTreeFromJDK {
                 }
                 // 此时bro为黑。x和bro同为黑的情况下，可以通过将bro染红来满足x被删之后，x.parent子树满足“任意路径黑色节点数目相同”的性质
                 if (colorOf(leftOf(bro)) && colorOf(rightOf(bro))) {
+                    if (STATS) {
+                        this.stats.deleteSiblingBlack++;
+                        this.stats.recolors++;
+                    }
                     // 如果bro, bro.left, bro.right都是黑色。此时将bro染红对bro的子树不会产生影响，但是x.parent子树路径的
                     // 黑色节点数目由于x的删除，由n变为n-1。因此，需要向上继续传递双黑冲突，进一步递归解决。
                     /*
@@ -529,6 +2021,10 @@ public class RedBlackTreeFromJDK {
                     // 如果bro.left和bro.right中至少有一个为红色。此时将bro染红对bro的子树会产生影响。因此需要同时解决bro上下
                     // 两个方向上的关系。
                     if (colorOf(rightOf(bro))) { // 如果只有bro的右子节点为黑色，bro的左子节点为红色
+                        if (STATS) {
+                            this.stats.deleteNearNephewRed++;
+                            this.stats.recolors += 2;
+                        }
                         // bro: 黑->红    bro.left: 红->黑
                         /*
                          * x.parent、bro、和bro.left(红)形成折线型，要先染色+旋转成下述的直线型，再做处理。
@@ -559,11 +2055,19 @@ public class RedBlackTreeFromJDK {
                     setColor(parentOf(x), true);
                     setColor(rightOf(bro), true);
                     this.rotateLeft(parentOf(x));
+                    if (STATS) {
+                        this.stats.deleteFarNephewRed++;
+                        this.stats.recolors += 3;
+                    }
                     x = this.root;  // 相当于break，跳出循环。而且该函数最后一行还有设置x颜色为黑的操作。
                 }
             } else { // 如果x是父节点的右子节点
                 bro = leftOf(parentOf(x));
                 if (!colorOf(bro)) { // 如果bro是红色节点
+                    if (STATS) {
+                        this.stats.deleteSiblingRed++;
+                        this.stats.recolors += 2;
+                    }
                     /* x:黑  bro:红  x.parent:黑  bro.left:黑  bro.right:黑
                      *       x.parent(黑)              x.parent(红)             bro(黑)
                      *         /     \       变色         /     \    右旋        /     \
@@ -581,6 +2085,10 @@ public class RedBlackTreeFromJDK {
                 }
                 // 此时 x:黑  x.bro:黑
                 if (colorOf(rightOf(bro)) && colorOf(leftOf(bro))) { // 如果bro的左右子孩子都是黑色
+                    if (STATS) {
+                        this.stats.deleteSiblingBlack++;
+                        this.stats.recolors++;
+                    }
                     /*
                      *        x.parent                    x.parent <----
                      *         /   \                      /    \        \
@@ -592,6 +2100,10 @@ public class RedBlackTreeFromJDK {
                     x = parentOf(x);
                 } else { // 如果bro的左右子孩子不全是黑色
                     if (colorOf(leftOf(bro))) {  // 如果left是黑色，right是红色
+                        if (STATS) {
+                            this.stats.deleteNearNephewRed++;
+                            this.stats.recolors += 2;
+                        }
                         /*
                          *    x.parent(未知1)         x.parent(未知1)           x.parent(未知1)
                          *       /       \               /       \              /       \
@@ -620,6 +2132,10 @@ public class RedBlackTreeFromJDK {
                     // 右旋
                     this.rotateRight(parentOf(x));
                     // 调整结束
+                    if (STATS) {
+                        this.stats.deleteFarNephewRed++;
+                        this.stats.recolors += 3;
+                    }
                     x = this.root;
                 }
             }
@@ -629,6 +2145,103 @@ public class RedBlackTreeFromJDK {
     }
 
 
+    /**
+     * 按升序遍历所有值。从缓存的最左节点开始，用successor逐个前进，不装箱，也不为每个元素分配对象。
+     * 遍历过程中如果树被修改，抛出ConcurrentModificationException。
+     * @param action 对每个值执行的操作
+     */
+    public void forEach(IntConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Node e = this.first; e != null; e = successor(e)) {
+            action.accept(e.val);
+            if (expectedModCount != this.modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * 按降序遍历所有值。从最右节点开始，用predecessor逐个后退。
+     * @param action 对每个值执行的操作
+     */
+    public void forEachDescending(IntConsumer action) {
+        int expectedModCount = this.modCount;
+        for (Node e = this.getLastNode(); e != null; e = predecessor(e)) {
+            action.accept(e.val);
+            if (expectedModCount != this.modCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * @return 按升序返回值的原始类型迭代器，nextInt()不装箱。
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new ValueIterator(this.first, true);
+    }
+
+    /**
+     * @return 按降序返回值的原始类型迭代器。
+     */
+    public PrimitiveIterator.OfInt descendingIterator() {
+        return new ValueIterator(this.getLastNode(), false);
+    }
+
+    /**
+     * 中序迭代器，仿照TreeMap.PrivateEntryIterator。支持remove()。
+     */
+    private final class ValueIterator implements PrimitiveIterator.OfInt {
+        private final boolean ascending;
+        private Node next;
+        private Node lastReturned;
+        private int expectedModCount;
+
+        ValueIterator(Node first, boolean ascending) {
+            this.ascending = ascending;
+            this.next = first;
+            this.expectedModCount = modCount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public int nextInt() {
+            Node e = this.next;
+            if (e == null) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            this.next = this.ascending ? successor(e) : predecessor(e);
+            this.lastReturned = e;
+            return e.val;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            // 升序时，如果lastReturned有两个后代，deleteEntry会把后继（也就是next）的值搬到lastReturned上并摘除后继节点，
+            // 所以下一个要返回的节点变成了lastReturned本身。降序时被摘除的后继已经遍历过，不受影响。
+            if (this.ascending && this.lastReturned.left != null && this.lastReturned.right != null) {
+                this.next = this.lastReturned;
+            }
+            deleteEntry(this.lastReturned);
+            this.expectedModCount = modCount;
+            this.lastReturned = null;
+        }
+    }
+
+
     /***************************************************************************************************************/
     /**
      * 返回中序遍历的字符串。
@@ -638,9 +2251,7 @@ public class RedBlackTreeFromJDK {
         if (this.root == null) {
             return "[]";
         }
-        Node node = this.root;
-        while (predecessor(node) != null)
-            node = predecessor(node);
+        Node node = this.first;
         StringBuilder sb = new StringBuilder("[");
         while (node != null) {
             sb.append(node.val).append(",");
@@ -650,56 +2261,10 @@ public class RedBlackTreeFromJDK {
         return sb.toString();
     }
 
-    public static String strTreeMapKeys(TreeMap<Integer, Integer> tm) {
-        if (tm.isEmpty())
-            return "[]";
-        StringBuilder sb = new StringBuilder("[");
-        for (int val : tm.keySet()) {
-            sb.append(val).append(",");
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
     /**
-     * 测试红黑树
+     * 测试红黑树：运行差分模糊测试，参数见 {@link rbt.fuzz.TreeFuzzer}。
      */
     public static void main(String[] args) {
-        try {
-            RedBlackTreeFromJDK rbt = new RedBlackTreeFromJDK();
-            TreeMap<Integer, Integer> tm = new TreeMap<>();
-            HashSet<Integer> set = new HashSet<>();
-            int num = 10000;
-            for (int seed=0; seed<10000; seed++) {
-                Random random = new Random(234);
-                for (int i = 0; i < num; i++) {
-                    int r = random.nextInt();
-                    rbt.add(r);
-                    tm.put(r, 0);
-                    set.add(r);
-                    String s1 = rbt.strValues();
-                    String s2 = strTreeMapKeys(tm);
-                    System.out.printf("增加值：\t\t\t%d(%d)\n", r, rbt.size());
-                    System.out.printf("红黑树输出：\t\t%s\nTreeMap输出：\t%s\n两者是否相等：\t%s\n\n", s1, s2, s1.equals(s2));
-                    if (!s1.equals(s2)) {
-                        throw new RuntimeException("Error!!!");
-                    }
-                }
-
-                for (int val : set) {
-                    rbt.remove(val);
-                    tm.remove(val);
-                    String s1 = rbt.strValues();
-                    String s2 = strTreeMapKeys(tm);
-                    System.out.printf("删除值：\t\t\t%d\n", val);
-                    System.out.printf("红黑树输出：\t\t%s\nTreeMap输出：\t%s\n两者是否相等：\t%s\n\n", s1, s2, s1.equals(s2));
-                    if (!s1.equals(s2)) {
-                        throw new RuntimeException("Error!!!");
-                    }
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        rbt.fuzz.TreeFuzzer.main(args);
     }
 }
@@ -0,0 +1,411 @@
+package rbt;
+
+
+import java.util.Arrays;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+
+/**
+ * 按键的范围分片的红黑树。整个int空间被划分为N段连续的区间，每段由一棵独立的 {@link RedBlackTreeFromJDK}
+ * 和一把独立的 {@link StampedLock} 负责，不同分片上的写操作互不阻塞。
+ * 1、单键操作先根据分片边界二分查找到分片，再在该分片的锁下执行，读操作和 {@link ConcurrentRedBlackTree} 一样使用乐观读；
+ * 2、size、countInRange、forEach、forEachInRange、floor、ceiling按顺序跨越多个分片，结果在每个分片内部一致；
+ * 3、每个分片记录最近写入的键的采样。某个分片的写入次数明显多于平均值（变热）时，根据所有分片的采样计算写入分布的
+ *    分位点（每个采样按所在分片的写入次数加权），作为新的分片边界，然后用concat和split在O(N log n)内把节点搬到新的分片中，不需要逐个重新插入。
+ * 重新分片时会先拿到所有旧分片的写锁并将其标记为失效，再发布新的分片布局；在失效分片上执行的操作会换到新布局上重试。
+ */
+public class ShardedRedBlackTree {
+
+    /**
+     * 每个分片保留的最近写入键的采样数目。
+     */
+    private static final int SAMPLES_PER_SHARD = 256;
+    /**
+     * 每个分片每写入这么多次，检查一次是否需要重新分片。
+     */
+    private static final int CHECK_INTERVAL = 1 << 14;
+    /**
+     * 某个分片的写入次数超过平均值的这么多倍，就认为它变热了。
+     */
+    private static final int HOT_FACTOR = 2;
+
+    static final class Shard {
+        final RedBlackTreeFromJDK tree;
+        final StampedLock lock = new StampedLock();
+        /**
+         * 重新分片后置为true，之后这个分片不再接受任何操作。只在持有写锁时修改。
+         */
+        volatile boolean retired;
+        /**
+         * 上次重新分片以来的写入次数，以及最近写入的键的环形采样。只在持有写锁时修改；
+         * writes是volatile的，maybeRebalance不持有锁也能读到最新的值。
+         */
+        volatile long writes;
+        final int[] samples = new int[SAMPLES_PER_SHARD];
+        int sampleCount;
+
+        Shard(RedBlackTreeFromJDK tree) {
+            this.tree = tree;
+        }
+
+        void recordWrite(int key) {
+            this.samples[(int) (this.writes % SAMPLES_PER_SHARD)] = key;
+            this.writes++;
+            if (this.sampleCount < SAMPLES_PER_SHARD) {
+                this.sampleCount++;
+            }
+        }
+    }
+
+    /**
+     * 不可变的分片布局。第i个分片负责[lower[i], lower[i + 1] - 1]，最后一个分片负责到Integer.MAX_VALUE。
+     */
+    static final class Layout {
+        final int[] lower;
+        final Shard[] shards;
+
+        Layout(int[] lower, Shard[] shards) {
+            this.lower = lower;
+            this.shards = shards;
+        }
+
+        int shardIndex(int key) {
+            int i = Arrays.binarySearch(this.lower, key);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        int upper(int i) {
+            return i + 1 < this.lower.length ? this.lower[i + 1] - 1 : Integer.MAX_VALUE;
+        }
+    }
+
+    private volatile Layout layout;
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    /**
+     * @param shards 分片数目。初始时把int空间均匀地划分给各个分片。
+     */
+    public ShardedRedBlackTree(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Illegal shard count: " + shards);
+        }
+        int[] lower = new int[shards];
+        Shard[] s = new Shard[shards];
+        long span = (1L << 32) / shards;
+        for (int i = 0; i < shards; i++) {
+            lower[i] = (int) (Integer.MIN_VALUE + span * i);
+            s[i] = new Shard(new RedBlackTreeFromJDK(true));
+        }
+        this.layout = new Layout(lower, s);
+    }
+
+    public int shardCount() {
+        return this.layout.shards.length;
+    }
+
+    public boolean contains(int key) {
+        while (true) {
+            Shard shard = this.shardFor(key);
+            long stamp = shard.lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                // 有步数上限的下降，见ConcurrentRedBlackTree#find
+                Node p = shard.tree.findBounded(key, RedBlackTreeFromJDK.EXACT);
+                if (p != RedBlackTreeFromJDK.STEPS_EXCEEDED && shard.lock.validate(stamp) && !shard.retired) {
+                    return p != null;
+                }
+            }
+            stamp = shard.lock.readLock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.contains(key);
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    public void add(int key) {
+        this.write(key, true);
+    }
+
+    public void remove(int key) {
+        this.write(key, false);
+    }
+
+    private void write(int key, boolean add) {
+        Shard shard;
+        boolean check;
+        while (true) {
+            shard = this.shardFor(key);
+            long stamp = shard.lock.writeLock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                if (add) {
+                    shard.tree.add(key);
+                } else {
+                    shard.tree.remove(key);
+                }
+                shard.recordWrite(key);
+                check = shard.writes % CHECK_INTERVAL == 0;
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+            break;
+        }
+        if (check) {
+            this.maybeRebalance();
+        }
+    }
+
+    private Shard shardFor(int key) {
+        Layout l = this.layout;
+        return l.shards[l.shardIndex(key)];
+    }
+
+    /**
+     * @return 所有分片的节点数目之和。
+     */
+    public int size() {
+        while (true) {
+            Layout l = this.layout;
+            int total = 0;
+            for (Shard shard : l.shards) {
+                long stamp = shard.lock.readLock();
+                try {
+                    total += shard.tree.size();
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+            if (l == this.layout) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 返回闭区间[lo, hi]内的值的个数，只访问与区间重叠的分片。
+     */
+    public int countInRange(int lo, int hi) {
+        if (lo > hi) {
+            return 0;
+        }
+        while (true) {
+            Layout l = this.layout;
+            int total = 0;
+            for (int i = l.shardIndex(lo); i < l.shards.length && l.lower[i] <= hi; i++) {
+                Shard shard = l.shards[i];
+                long stamp = shard.lock.readLock();
+                try {
+                    total += shard.tree.countInRange(lo, hi);
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+            if (l == this.layout) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 按升序遍历所有值。
+     */
+    public void forEach(IntConsumer action) {
+        this.forEachInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, action);
+    }
+
+    /**
+     * 按升序遍历闭区间[lo, hi]内的值。每个分片在自己的读锁下遍历；如果遍历到一半时发生了重新分片，
+     * 从上一个已输出的值之后在新布局上继续，所以每个值最多输出一次。
+     * action中不能再调用本对象的写操作，否则会死锁。
+     */
+    public void forEachInRange(int lo, int hi, IntConsumer action) {
+        long from = lo;
+        while (from <= hi) {
+            Layout l = this.layout;
+            int i = l.shardIndex((int) from);
+            Shard shard = l.shards[i];
+            int shardHi = Math.min(hi, l.upper(i));
+            long stamp = shard.lock.readLock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                for (Node e = shard.tree.getCeilingNode((int) from); e != null && e.val <= shardHi;
+                     e = RedBlackTreeFromJDK.successor(e)) {
+                    action.accept(e.val);
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+            from = (long) shardHi + 1;
+        }
+    }
+
+    /**
+     * @return 大于等于key的最小值，可能位于后面的分片中。
+     */
+    public OptionalInt ceiling(int key) {
+        long from = key;
+        while (from <= Integer.MAX_VALUE) {
+            Layout l = this.layout;
+            int i = l.shardIndex((int) from);
+            Shard shard = l.shards[i];
+            long stamp = shard.lock.readLock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                OptionalInt r = shard.tree.ceiling((int) from);
+                if (r.isPresent()) {
+                    return r;
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+            from = (long) l.upper(i) + 1;
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * @return 小于等于key的最大值，可能位于前面的分片中。
+     */
+    public OptionalInt floor(int key) {
+        long from = key;
+        while (from >= Integer.MIN_VALUE) {
+            Layout l = this.layout;
+            int i = l.shardIndex((int) from);
+            Shard shard = l.shards[i];
+            long stamp = shard.lock.readLock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                OptionalInt r = shard.tree.floor((int) from);
+                if (r.isPresent()) {
+                    return r;
+                }
+            } finally {
+                shard.lock.unlockRead(stamp);
+            }
+            from = (long) l.lower[i] - 1;
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * 如果某个分片的写入次数超过平均值的HOT_FACTOR倍，重新分片。同一时刻最多只有一个线程执行检查。
+     */
+    private void maybeRebalance() {
+        if (!this.rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Shard[] shards = this.layout.shards;
+            if (shards.length == 1) {
+                return;
+            }
+            long total = 0;
+            long max = 0;
+            for (Shard shard : shards) {
+                total += shard.writes;
+                max = Math.max(max, shard.writes);
+            }
+            if (max * shards.length > HOT_FACTOR * total) {
+                this.rebalance();
+            }
+        } finally {
+            this.rebalancing.set(false);
+        }
+    }
+
+    /**
+     * 立即根据写入采样重新计算分片边界并搬迁节点。步骤：
+     * 1、按顺序获取所有分片的写锁，合并所有分片的写入采样；
+     * 2、每个分片最多保留SAMPLES_PER_SHARD个采样，与它的写入次数无关，所以分片i的每个采样代表writes / sampleCount次写入。
+     *    按这个权重累加，取写入分布的N-1个分位点作为新边界（保证严格递增）。新边界与当前边界相同时不搬迁；
+     * 3、把所有分片的树concat成一棵，再依次按新边界split，得到新的分片；
+     * 4、标记旧分片失效，发布新布局，释放写锁。
+     */
+    public synchronized void rebalance() {
+        Layout old = this.layout;
+        Shard[] shards = old.shards;
+        int n = shards.length;
+        long[] stamps = new long[n];
+        for (int i = 0; i < n; i++) {
+            stamps[i] = shards[i].lock.writeLock();
+        }
+        try {
+            int count = 0;
+            for (Shard shard : shards) {
+                count += shard.sampleCount;
+            }
+            if (count < n) {
+                return;
+            }
+            // 高32位为键，低32位为分片下标，按long排序即按键排序
+            long[] samples = new long[count];
+            double[] weight = new double[n];
+            double total = 0;
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                Shard shard = shards[i];
+                for (int j = 0; j < shard.sampleCount; j++) {
+                    samples[pos++] = ((long) shard.samples[j] << 32) | i;
+                }
+                if (shard.sampleCount > 0) {
+                    weight[i] = (double) shard.writes / shard.sampleCount;
+                    total += shard.writes;
+                }
+            }
+            Arrays.sort(samples);
+
+            int[] lower = new int[n];
+            lower[0] = Integer.MIN_VALUE;
+            double cumulative = 0;
+            int next = 0;
+            for (int i = 1; i < n; i++) {
+                // 第一个使累计权重达到total * i / n的采样
+                while (next < count - 1 && cumulative + weight[(int) samples[next]] < total * i / n) {
+                    cumulative += weight[(int) samples[next++]];
+                }
+                int q = (int) (samples[next] >> 32);
+                // 边界必须严格递增，并且给后面的分片至少留出一个值
+                long min = (long) lower[i - 1] + 1;
+                long max = (long) Integer.MAX_VALUE - (n - 1 - i);
+                lower[i] = (int) Math.min(Math.max(q, min), max);
+            }
+            if (Arrays.equals(lower, old.lower)) {
+                return;
+            }
+
+            RedBlackTreeFromJDK all = shards[0].tree;
+            for (int i = 1; i < n; i++) {
+                all = RedBlackTreeFromJDK.concat(all, shards[i].tree);
+            }
+            Shard[] fresh = new Shard[n];
+            for (int i = n - 1; i > 0; i--) {
+                RedBlackTreeFromJDK[] parts = all.split(lower[i]);
+                fresh[i] = new Shard(parts[1]);
+                all = parts[0];
+            }
+            fresh[0] = new Shard(all);
+
+            for (Shard shard : shards) {
+                shard.retired = true;
+            }
+            this.layout = new Layout(lower, fresh);
+        } finally {
+            for (int i = 0; i < n; i++) {
+                shards[i].lock.unlockWrite(stamps[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package rbt;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.zip.CRC32;
+
+/**
+ * 红黑树的二进制快照格式，供 {@link RedBlackTreeFromJDK#writeTo(WritableByteChannel)} 和
+ * {@link RedBlackTreeFromJDK#readFrom(ReadableByteChannel)} 使用。所有整数均为大端序。
+ *
+ * 文件头（14字节）：
+ *   magic    int    0x52425453（"RBTS"）
+ *   version  short  当前为1
+ *   count    int    键的总数
+ *   crc      int    前10字节的CRC32
+ * 之后是若干个数据块，每块最多BLOCK_KEYS个键：
+ *   keys     int    本块的键数，大于0
+ *   length   int    payload的字节数
+ *   payload  byte[] 本块第一个键的zig-zag varint，之后每个键与前一个键之差减1的无符号varint
+ *   crc      int    keys、length、payload的CRC32
+ * 每块的第一个键不依赖前面的块，所以块可以独立校验。键严格递增，差值至少为1，减1后连续的键只占1个字节，
+ * 因此后续的差值不需要zig-zag。读写时只缓存一个块，内存占用与树的大小无关。
+ */
+final class SnapshotCodec {
+
+    static final int MAGIC = 0x52425453;
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 14;
+    static final int BLOCK_KEYS = 4096;
+    /**
+     * 块头8字节，每个键最多5字节，块尾4字节。
+     */
+    static final int MAX_BLOCK_BYTES = 8 + BLOCK_KEYS * 5 + 4;
+
+    private SnapshotCodec() {}
+
+    /**
+     * 按升序把tree中的所有键写入ch。
+     */
+    static void write(RedBlackTreeFromJDK tree, WritableByteChannel ch) throws IOException {
+        write(tree.size(), new PrimitiveIterator.OfInt() {
+            private Node e = tree.getFirstNode();
+
+            @Override
+            public boolean hasNext() {
+                return this.e != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (this.e == null) {
+                    throw new NoSuchElementException();
+                }
+                int v = this.e.val;
+                this.e = RedBlackTreeFromJDK.successor(this.e);
+                return v;
+            }
+        }, ch);
+    }
+
+    /**
+     * 把严格升序的count个键写入ch。
+     */
+    static void write(int count, PrimitiveIterator.OfInt keys, WritableByteChannel ch) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putShort(VERSION).putInt(count);
+        crc.update(header.array(), 0, 10);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        writeFully(ch, header);
+
+        ByteBuffer block = ByteBuffer.allocate(MAX_BLOCK_BYTES);
+        int written = 0;
+        while (keys.hasNext()) {
+            block.clear();
+            block.position(8);
+            int n = 0;
+            int prev = 0;
+            for (; keys.hasNext() && n < BLOCK_KEYS; n++) {
+                int v = keys.nextInt();
+                if (n == 0) {
+                    putVarint(block, (v << 1) ^ (v >> 31));
+                } else {
+                    putVarint(block, v - prev - 1);
+                }
+                prev = v;
+            }
+            block.putInt(0, n).putInt(4, block.position() - 8);
+            crc.reset();
+            crc.update(block.array(), 0, block.position());
+            block.putInt((int) crc.getValue());
+            block.flip();
+            writeFully(ch, block);
+            written += n;
+        }
+        if (written != count) {
+            throw new IllegalStateException("Keys changed while writing: expected " + count + " keys, wrote " + written);
+        }
+    }
+
+    /**
+     * 以无符号数写入v，每字节7位，低位在前，最高位表示后面还有字节。
+     */
+    private static void putVarint(ByteBuffer buf, int v) {
+        while ((v & ~0x7F) != 0) {
+            buf.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.put((byte) v);
+    }
+
+    private static void writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException("Unexpected end of snapshot");
+            }
+        }
+        buf.flip();
+    }
+
+    /**
+     * 逐块读取并校验快照，按升序返回键。构造时读取并校验文件头。
+     * 迭代过程中的IOException被包装为UncheckedIOException抛出，由调用者解开。
+     */
+    static final class Reader implements PrimitiveIterator.OfInt {
+        private final ReadableByteChannel ch;
+        private final int count;
+        private final ByteBuffer block = ByteBuffer.allocate(MAX_BLOCK_BYTES);
+        private final CRC32 crc = new CRC32();
+        /**
+         * 已经返回的键数，当前块中剩余的键数，上一个返回的键。
+         */
+        private int returned;
+        private int remainingInBlock;
+        private long prev;
+
+        Reader(ReadableByteChannel ch) throws IOException {
+            this.ch = ch;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(ch, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a red-black tree snapshot");
+            }
+            if (header.getShort(4) != VERSION) {
+                throw new IOException("Unsupported snapshot version: " + header.getShort(4));
+            }
+            this.crc.update(header.array(), 0, 10);
+            if (header.getInt(10) != (int) this.crc.getValue()) {
+                throw new IOException("Snapshot header checksum mismatch");
+            }
+            this.count = header.getInt(6);
+            if (this.count < 0) {
+                throw new IOException("Illegal key count: " + this.count);
+            }
+        }
+
+        int count() {
+            return this.count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.returned < this.count;
+        }
+
+        @Override
+        public int nextInt() {
+            if (this.returned >= this.count) {
+                throw new NoSuchElementException();
+            }
+            try {
+                long key;
+                if (this.remainingInBlock == 0) {
+                    this.readBlock();
+                    int z = this.getVarint();
+                    key = (z >>> 1) ^ -(z & 1);
+                    if (this.returned > 0 && key <= this.prev) {
+                        throw new IOException("Keys are not strictly increasing across blocks");
+                    }
+                } else {
+                    key = this.prev + (this.getVarint() & 0xFFFFFFFFL) + 1;
+                    if (key > Integer.MAX_VALUE) {
+                        throw new IOException("Key out of range in snapshot block");
+                    }
+                }
+                this.remainingInBlock--;
+                if (this.remainingInBlock == 0 && this.block.hasRemaining()) {
+                    throw new IOException("Trailing bytes in snapshot block");
+                }
+                this.prev = key;
+                this.returned++;
+                return (int) key;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void readBlock() throws IOException {
+            ByteBuffer head = this.block;
+            head.clear().limit(8);
+            readFully(this.ch, head);
+            int keys = head.getInt(0);
+            int length = head.getInt(4);
+            if (keys <= 0 || keys > BLOCK_KEYS || keys > this.count - this.returned
+                    || length < keys || length > keys * 5) {
+                throw new IOException("Corrupt snapshot block header: keys=" + keys + ", length=" + length);
+            }
+            head.limit(8 + length + 4).position(8);
+            readFully(this.ch, head);
+            this.crc.reset();
+            this.crc.update(head.array(), 0, 8 + length);
+            if (head.getInt(8 + length) != (int) this.crc.getValue()) {
+                throw new IOException("Snapshot block checksum mismatch");
+            }
+            head.position(8).limit(8 + length);
+            this.remainingInBlock = keys;
+        }
+
+        private int getVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (!this.block.hasRemaining()) {
+                    throw new IOException("Truncated varint in snapshot block");
+                }
+                byte b = this.block.get();
+                v |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Malformed varint in snapshot block");
+        }
+    }
+}
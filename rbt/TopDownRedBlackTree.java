@@ -0,0 +1,415 @@
+package rbt;
+
+
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * 节点没有parent字段的红黑树，插入和删除都是自顶向下的单趟算法（Guibas–Sedgewick，实现参照Julienne Walker）。
+ * {@link RedBlackTreeFromJDK} 需要parent只是因为fixAfterInsertion、fixAfterDeletion、successor、predecessor要向上走；
+ * 这里在从root下降的过程中就完成全部调整，到达目标位置时树已经满足红黑性质，不需要再回头：
+ * 1、插入：下降途中遇到两个孩子都是红色的节点就做颜色翻转（对应add注释中的2.3.1叔叔为红色），
+ *    翻转或者新节点造成的红红冲突，用曾祖父、祖父、父节点三个指针在原地旋转修复（对应2.3.2的三角型和直线型）。
+ *    因为翻转保证了路径上不会再有红色的叔叔，旋转之后不会产生新的冲突，所以不需要向上递归；
+ * 2、删除：下降途中保证当前节点或者它在下降方向上的孩子是红色（把红色“推”下来），到达叶子附近时，
+ *    被摘除的节点一定是红色的，摘除它不会改变黑高，也就不存在双黑问题。
+ *    和JDK的做法一样，有两个后代的节点用前驱的值替换，实际摘除的是前驱节点。
+ * 遍历使用显式栈保存从root到当前节点的左链。
+ *
+ * 每个节点少了一个引用，但对象按8字节对齐，省下的空间不一定能兑现。在64位HotSpot上（对象头12字节）实测：
+ * 开启压缩指针时Node为12 + 3*4 + 4 + 1 = 29字节，Entry为12 + 2*4 + 4 + 1 = 25字节，对齐后都是32字节，没有节省；
+ * 关闭压缩指针时（例如堆大于32GB）Node为48字节，Entry为40字节，每个节点省8字节。
+ * 省掉parent的主要好处是旋转和增删时少写一个引用。代价是插入和删除即使没有修改内容，
+ * 也可能在下降途中做颜色翻转和旋转，这些调整同样保持红黑性质。
+ */
+public class TopDownRedBlackTree {
+
+    static final class Entry {
+        Entry left;
+        Entry right;
+        int val;
+        boolean isBlack;
+
+        Entry(int val, boolean isBlack) {
+            this.val = val;
+            this.isBlack = isBlack;
+        }
+    }
+
+    private Entry root;
+    private int size = 0;
+    /**
+     * 结构修改（增删节点和旋转）的次数，用于迭代器的快速失败检测。
+     */
+    private int modCount = 0;
+    /**
+     * 伪根：root挂在它的右孩子上，这样对root的旋转也可以和其他节点一样通过父节点的链接完成。只在add、remove期间使用。
+     */
+    private final Entry head = new Entry(0, true);
+
+    public TopDownRedBlackTree() {}
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean contains(int key) {
+        Entry p = this.root;
+        while (p != null) {
+            if (p.val == key)
+                return true;
+            p = p.val < key ? p.right : p.left;
+        }
+        return false;
+    }
+
+    private static boolean isRed(Entry p) {
+        return p != null && !p.isBlack;
+    }
+
+    /**
+     * @param right true表示右孩子，false表示左孩子
+     */
+    private static Entry child(Entry p, boolean right) {
+        return right ? p.right : p.left;
+    }
+
+    private static void setChild(Entry p, boolean right, Entry c) {
+        if (right) {
+            p.right = c;
+        } else {
+            p.left = c;
+        }
+    }
+
+    /**
+     * 单旋转：toRight为true时右旋（p.left上来），否则左旋。旋转后原来的p变红，新的局部最高点变黑。
+     * @return 新的局部最高点，由调用者挂到原来p的位置
+     */
+    private Entry rotate(Entry p, boolean toRight) {
+        ++this.modCount;
+        Entry s = child(p, !toRight);
+        setChild(p, !toRight, child(s, toRight));
+        setChild(s, toRight, p);
+        p.isBlack = false;
+        s.isBlack = true;
+        return s;
+    }
+
+    /**
+     * 双旋转，用于三角型（折线）：先把p在!toRight一侧的孩子反向旋转成直线型，再旋转p。
+     * @return 新的局部最高点
+     */
+    private Entry rotateTwice(Entry p, boolean toRight) {
+        setChild(p, !toRight, this.rotate(child(p, !toRight), !toRight));
+        return this.rotate(p, toRight);
+    }
+
+    /**
+     * 向红黑树中加入值key，单趟自顶向下完成。
+     * 下降时维护四个指针：t（曾祖父）、g（祖父）、p（父节点）、q（当前节点）。
+     * 1、q为null时，在这里挂上新的红色节点；q的两个孩子都是红色时，做颜色翻转；
+     * 2、如果q和p都是红色，p一定不是root（root为黑色），所以g存在并且是黑色，以g为轴旋转：
+     *    q在p上的方向与p在g上的方向相同时（直线型）单旋转，否则（三角型）双旋转，结果挂回t；
+     * 3、遇到key时停止，否则继续下降。
+     * @param key key
+     */
+    public void add(int key) {
+        if (this.root == null) {
+            this.root = new Entry(key, true);
+            this.size = 1;
+            ++this.modCount;
+            return;
+        }
+        Entry head = this.head;
+        head.right = this.root;
+        Entry t = head;
+        Entry g = null;
+        Entry p = null;
+        Entry q = this.root;
+        boolean dir = false;
+        boolean last = false;
+        boolean added = false;
+        while (true) {
+            if (q == null) {
+                q = new Entry(key, false);
+                setChild(p, dir, q);
+                added = true;
+            } else if (isRed(q.left) && isRed(q.right)) {
+                q.isBlack = false;
+                q.left.isBlack = true;
+                q.right.isBlack = true;
+            }
+            if (isRed(q) && isRed(p)) {
+                boolean dir2 = t.right == g;
+                setChild(t, dir2, q == child(p, last) ? this.rotate(g, !last) : this.rotateTwice(g, !last));
+            }
+            if (q.val == key) {
+                break;
+            }
+            last = dir;
+            dir = q.val < key;
+            if (g != null) {
+                t = g;
+            }
+            g = p;
+            p = q;
+            q = child(q, dir);
+        }
+        this.root = head.right;
+        head.right = null;
+        this.root.isBlack = true;
+        if (added) {
+            ++this.size;
+            ++this.modCount;
+        }
+    }
+
+    /**
+     * 在红黑树中删除值key，单趟自顶向下完成。从伪根开始下降，维护g（祖父）、p（父节点）、q（当前节点）：
+     * 遇到key时记下该节点f，之后继续向左下降，寻找f的前驱。每下降一步，如果q和q在下降方向上的孩子都是黑色：
+     * 1、q的另一个孩子是红色：把它旋转上来，q变成红色，成为它的孩子；
+     * 2、q的兄弟s的两个孩子都是黑色：颜色翻转，p变黑，q和s变红（p在上一步已经保证是红色，所以黑高不变）；
+     * 3、s有红色的孩子：以p为轴单旋转或双旋转，从s一侧借一个节点过来，q变红，新的局部最高点变红、它的两个孩子变黑。
+     * 下降结束时q是红色的叶子或者只有一个孩子，把q的值复制到f中，再用q唯一的孩子替换q。
+     * @param key key
+     */
+    public void remove(int key) {
+        if (this.root == null) {
+            return;
+        }
+        Entry head = this.head;
+        head.right = this.root;
+        Entry q = head;
+        Entry p = null;
+        Entry g = null;
+        Entry f = null;
+        boolean dir = true;
+        while (child(q, dir) != null) {
+            boolean last = dir;
+            g = p;
+            p = q;
+            q = child(q, dir);
+            dir = q.val < key;
+            if (q.val == key) {
+                f = q;
+            }
+            if (!isRed(q) && !isRed(child(q, dir))) {
+                if (isRed(child(q, !dir))) {
+                    Entry r = this.rotate(q, dir);
+                    setChild(p, last, r);
+                    p = r;
+                } else {
+                    Entry s = child(p, !last);
+                    if (s != null) {
+                        if (!isRed(s.left) && !isRed(s.right)) {
+                            p.isBlack = true;
+                            s.isBlack = false;
+                            q.isBlack = false;
+                        } else {
+                            boolean dir2 = g.right == p;
+                            Entry r = isRed(child(s, last)) ? this.rotateTwice(p, last) : this.rotate(p, last);
+                            setChild(g, dir2, r);
+                            q.isBlack = false;
+                            r.isBlack = false;
+                            r.left.isBlack = true;
+                            r.right.isBlack = true;
+                        }
+                    }
+                }
+            }
+        }
+        if (f != null) {
+            f.val = q.val;
+            setChild(p, p.right == q, q.left == null ? q.right : q.left);
+            q.left = q.right = null;
+            --this.size;
+            ++this.modCount;
+        }
+        this.root = head.right;
+        head.right = null;
+        if (this.root != null) {
+            this.root.isBlack = true;
+        }
+    }
+
+    /**
+     * 清空红黑树
+     */
+    public void clear() {
+        this.root = null;
+        this.size = 0;
+        ++this.modCount;
+    }
+
+    /**
+     * 返回最小值。树为空时抛出NoSuchElementException。
+     */
+    public int first() {
+        Entry p = this.root;
+        if (p == null) {
+            throw new NoSuchElementException();
+        }
+        while (p.left != null) {
+            p = p.left;
+        }
+        return p.val;
+    }
+
+    /**
+     * 返回最大值。树为空时抛出NoSuchElementException。
+     */
+    public int last() {
+        Entry p = this.root;
+        if (p == null) {
+            throw new NoSuchElementException();
+        }
+        while (p.right != null) {
+            p = p.right;
+        }
+        return p.val;
+    }
+
+    /**
+     * 以下四个导航查询没有parent可以回溯，所以在下降时记下最后一个满足条件的节点作为候选。
+     * @return 小于等于key的最大值
+     */
+    public OptionalInt floor(int key) {
+        return this.search(key, true, true);
+    }
+
+    /**
+     * @return 大于等于key的最小值
+     */
+    public OptionalInt ceiling(int key) {
+        return this.search(key, false, true);
+    }
+
+    /**
+     * @return 严格小于key的最大值
+     */
+    public OptionalInt lower(int key) {
+        return this.search(key, true, false);
+    }
+
+    /**
+     * @return 严格大于key的最小值
+     */
+    public OptionalInt higher(int key) {
+        return this.search(key, false, false);
+    }
+
+    private OptionalInt search(int key, boolean below, boolean inclusive) {
+        Entry p = this.root;
+        Entry candidate = null;
+        while (p != null) {
+            if (p.val == key && inclusive) {
+                return OptionalInt.of(p.val);
+            }
+            if (below ? p.val < key : p.val > key) {
+                candidate = p;
+                p = below ? p.right : p.left;
+            } else {
+                p = below ? p.left : p.right;
+            }
+        }
+        return candidate == null ? OptionalInt.empty() : OptionalInt.of(candidate.val);
+    }
+
+    /**
+     * 按升序遍历所有值。
+     */
+    public void forEach(IntConsumer action) {
+        for (PrimitiveIterator.OfInt it = this.iterator(); it.hasNext(); ) {
+            action.accept(it.nextInt());
+        }
+    }
+
+    /**
+     * @return 按升序返回值的迭代器，支持remove。
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new ValueIterator();
+    }
+
+    /**
+     * 基于显式栈的中序迭代器，栈中保存从root到下一个节点的路径上还没有返回的节点。红黑树的高度不超过2*log2(n+1)，
+     * 对于int范围内的n，64层的栈足够。remove会在下降途中旋转，栈随之失效，所以删除之后从root重新定位到下一个值。
+     */
+    private final class ValueIterator implements PrimitiveIterator.OfInt {
+        private final Entry[] stack = new Entry[64];
+        private int depth = 0;
+        private boolean hasLast = false;
+        private int lastReturned;
+        private int expectedModCount = modCount;
+
+        ValueIterator() {
+            this.pushLeft(root);
+        }
+
+        private void pushLeft(Entry p) {
+            for (; p != null; p = p.left) {
+                this.stack[this.depth++] = p;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.depth > 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (this.depth == 0) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            Entry e = this.stack[--this.depth];
+            this.stack[this.depth] = null;
+            this.pushLeft(e.right);
+            this.lastReturned = e.val;
+            this.hasLast = true;
+            return e.val;
+        }
+
+        @Override
+        public void remove() {
+            if (!this.hasLast) {
+                throw new IllegalStateException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            TopDownRedBlackTree.this.remove(this.lastReturned);
+            this.hasLast = false;
+            this.expectedModCount = modCount;
+            // 重新建立从root到第一个大于lastReturned的节点的路径：向左走的节点都比它大，需要入栈
+            while (this.depth > 0) {
+                this.stack[--this.depth] = null;
+            }
+            for (Entry p = root; p != null; ) {
+                if (p.val > this.lastReturned) {
+                    this.stack[this.depth++] = p;
+                    p = p.left;
+                } else {
+                    p = p.right;
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回中序遍历的字符串，格式与 {@link RedBlackTreeFromJDK#strValues()} 相同。
+     */
+    public String strValues() {
+        StringBuilder sb = new StringBuilder("[");
+        this.forEach(v -> sb.append(v).append(","));
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package rbt;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 一次遍历检查红黑树的全部性质，供 {@link RedBlackTreeFromJDK#validate()} 使用：
+ * 1、没有红色节点有红色孩子；
+ * 2、每条路径的黑色节点数目相同；
+ * 3、BST顺序：每个节点的值都在祖先限定的开区间内，因此也不会有重复的值；
+ * 4、每个孩子的parent都指向自己；
+ * 5、开启顺序统计时，每个节点的子树大小等于两个孩子的子树大小加上自己的出现次数。
+ * root的颜色、缓存的size和first由调用者检查。
+ * 大的子树（按黑高估计不少于2^FORK_BLACK_HEIGHT个节点）拆成左右两个任务在ForkJoinPool上并行检查，结果自底向上合并。
+ */
+final class TreeValidator {
+
+    static final int MAX_VIOLATIONS = 16;
+    /**
+     * 黑高不低于这个值的子树至少有2^FORK_BLACK_HEIGHT - 1个节点，值得拆成并行任务。
+     */
+    private static final int FORK_BLACK_HEIGHT = 16;
+    /**
+     * 超过这个深度就认为链接出现了环，不再往下走。红黑树的高度不超过2*log2(n+1)。
+     */
+    private static final int MAX_DEPTH = 128;
+
+    private TreeValidator() {}
+
+    /**
+     * 一棵或几棵子树的检查结果的累加器。
+     */
+    static final class Result {
+        long count;
+        int height;
+        /**
+         * 子树的黑高（含子树根本身），不一致时为-1。
+         */
+        int blackHeight;
+        long[] histogram = new long[64];
+        final List<String> violations = new ArrayList<>();
+
+        void violation(String message) {
+            if (this.violations.size() < MAX_VIOLATIONS) {
+                this.violations.add(message);
+            }
+        }
+
+        void countDepth(int depth) {
+            if (depth >= this.histogram.length) {
+                this.histogram = Arrays.copyOf(this.histogram, Math.max(depth + 1, this.histogram.length * 2));
+            }
+            this.histogram[depth]++;
+            this.count++;
+            this.height = Math.max(this.height, depth + 1);
+        }
+
+        void merge(Result o) {
+            this.count += o.count;
+            this.height = Math.max(this.height, o.height);
+            if (o.histogram.length > this.histogram.length) {
+                this.histogram = Arrays.copyOf(this.histogram, o.histogram.length);
+            }
+            for (int i = 0; i < o.histogram.length; i++) {
+                this.histogram[i] += o.histogram[i];
+            }
+            for (String v : o.violations) {
+                this.violation(v);
+            }
+        }
+
+        ValidationReport toReport() {
+            int h = this.histogram.length;
+            while (h > 0 && this.histogram[h - 1] == 0) {
+                h--;
+            }
+            return new ValidationReport(this.count, this.height, this.blackHeight, Arrays.copyOf(this.histogram, h),
+                    this.violations);
+        }
+    }
+
+    /**
+     * 检查以root为根的整棵树。
+     */
+    static Result check(Node root, boolean orderStatistics, ForkJoinPool pool) {
+        if (root == null) {
+            return new Result();
+        }
+        int estimate = 0;
+        for (Node p = root; p != null; p = p.left) {
+            if (p.isBlack) {
+                estimate++;
+            }
+        }
+        int forkDepth = 32 - Integer.numberOfLeadingZeros(pool.getParallelism()) + 2;
+        return pool.invoke(new Task(root, 0, Long.MIN_VALUE, Long.MAX_VALUE, estimate, orderStatistics, forkDepth));
+    }
+
+    private static final class Task extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final int depth;
+        private final long lo;
+        private final long hi;
+        private final int blackEstimate;
+        private final boolean orderStatistics;
+        private final int forkDepth;
+
+        /**
+         * @param lo 子树中的值必须大于lo
+         * @param hi 子树中的值必须小于hi
+         * @param blackEstimate 沿最左路径估计的子树黑高，只用于决定是否并行
+         */
+        Task(Node node, int depth, long lo, long hi, int blackEstimate, boolean orderStatistics, int forkDepth) {
+            this.node = node;
+            this.depth = depth;
+            this.lo = lo;
+            this.hi = hi;
+            this.blackEstimate = blackEstimate;
+            this.orderStatistics = orderStatistics;
+            this.forkDepth = forkDepth;
+        }
+
+        @Override
+        protected Result compute() {
+            Node p = this.node;
+            if (this.depth < this.forkDepth && this.blackEstimate >= FORK_BLACK_HEIGHT
+                    && p.left != null && p.right != null) {
+                int childEstimate = this.blackEstimate - (p.isBlack ? 1 : 0);
+                Task right = new Task(p.right, this.depth + 1, p.val, this.hi, childEstimate,
+                        this.orderStatistics, this.forkDepth);
+                right.fork();
+                Result res = new Task(p.left, this.depth + 1, this.lo, p.val, childEstimate,
+                        this.orderStatistics, this.forkDepth).compute();
+                Result r = right.join();
+                int lbh = res.blackHeight;
+                res.merge(r);
+                res.blackHeight = checkNode(p, this.depth, this.lo, this.hi, lbh, r.blackHeight,
+                        this.orderStatistics, res);
+                return res;
+            }
+            Result res = new Result();
+            res.blackHeight = visit(p, this.depth, this.lo, this.hi, this.orderStatistics, res);
+            return res;
+        }
+    }
+
+    /**
+     * 顺序地检查子树p，结果累加到acc中。
+     * @return 子树p的黑高，不一致时为-1
+     */
+    private static int visit(Node p, int depth, long lo, long hi, boolean orderStatistics, Result acc) {
+        if (p == null) {
+            return 0;
+        }
+        if (depth > MAX_DEPTH) {
+            acc.violation("depth exceeds " + MAX_DEPTH + " at value " + p.val + ", links probably form a cycle");
+            return -1;
+        }
+        int lbh = visit(p.left, depth + 1, lo, p.val, orderStatistics, acc);
+        int rbh = visit(p.right, depth + 1, p.val, hi, orderStatistics, acc);
+        return checkNode(p, depth, lo, hi, lbh, rbh, orderStatistics, acc);
+    }
+
+    /**
+     * 子树p记录的大小。p为null或者不是WeightedNode时为0，后一种情况由checkNode报告。
+     */
+    private static long weightOf(Node p) {
+        return p instanceof WeightedNode ? ((WeightedNode) p).weight : 0L;
+    }
+
+    /**
+     * 检查节点p本身，以及它和孩子之间的关系。子树大小只需要和两个孩子记录的子树大小比较，归纳起来就是整棵树都正确。
+     * @param lbh 左子树的黑高
+     * @param rbh 右子树的黑高
+     * @return 以p为根的子树的黑高，不一致时为-1
+     */
+    private static int checkNode(Node p, int depth, long lo, long hi, int lbh, int rbh, boolean orderStatistics,
+                                 Result acc) {
+        acc.countDepth(depth);
+        if (p.val <= lo || p.val >= hi) {
+            acc.violation("value " + p.val + " breaks BST order, expected range ("
+                    + (lo == Long.MIN_VALUE ? "-inf" : lo) + ", " + (hi == Long.MAX_VALUE ? "+inf" : hi) + ")");
+        }
+        if (!p.isBlack && ((p.left != null && !p.left.isBlack) || (p.right != null && !p.right.isBlack))) {
+            acc.violation("red value " + p.val + " has a red child");
+        }
+        if (p.left != null && p.left.parent != p) {
+            acc.violation("left child " + p.left.val + " of " + p.val + " has a wrong parent link");
+        }
+        if (p.right != null && p.right.parent != p) {
+            acc.violation("right child " + p.right.val + " of " + p.val + " has a wrong parent link");
+        }
+        if (orderStatistics) {
+            if (!(p instanceof WeightedNode)) {
+                acc.violation("node " + p.val + " has no subtree weight");
+            } else {
+                long expected = weightOf(p.left) + weightOf(p.right) + p.multiplicity();
+                if (((WeightedNode) p).weight != expected) {
+                    acc.violation("weight of " + p.val + " is " + ((WeightedNode) p).weight + ", expected " + expected);
+                }
+            }
+        }
+        if (lbh < 0 || rbh < 0) {
+            return -1;
+        }
+        if (lbh != rbh) {
+            acc.violation("black-height differs at value " + p.val + ": left " + lbh + ", right " + rbh);
+            return -1;
+        }
+        return p.isBlack ? lbh + 1 : lbh;
+    }
+}
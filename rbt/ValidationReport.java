@@ -0,0 +1,75 @@
+package rbt;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link RedBlackTreeFromJDK#validate()} 的结果：树的形状统计，以及发现的所有违反红黑树性质的问题。
+ */
+public final class ValidationReport {
+
+    private final long size;
+    private final int height;
+    private final int blackHeight;
+    private final long[] depthHistogram;
+    private final List<String> violations;
+
+    ValidationReport(long size, int height, int blackHeight, long[] depthHistogram, List<String> violations) {
+        this.size = size;
+        this.height = height;
+        this.blackHeight = blackHeight;
+        this.depthHistogram = depthHistogram;
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * @return 是否满足全部性质
+     */
+    public boolean isValid() {
+        return this.violations.isEmpty();
+    }
+
+    /**
+     * @return 遍历到的节点数目
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * @return 最深的节点所在的层数，root为1，空树为0
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * @return 从root到NIL路径上的黑色节点数目（不计NIL）；各路径不相等时为-1
+     */
+    public int blackHeight() {
+        return this.blackHeight;
+    }
+
+    /**
+     * @return 第i个元素为深度i（root为0）的节点数目
+     */
+    public long[] depthHistogram() {
+        return this.depthHistogram.clone();
+    }
+
+    /**
+     * @return 发现的问题，最多 {@value TreeValidator#MAX_VIOLATIONS} 条
+     */
+    public List<String> violations() {
+        return this.violations;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + this.size + ", height=" + this.height + ", blackHeight=" + this.blackHeight
+                + ", depthHistogram=" + Arrays.toString(this.depthHistogram)
+                + (this.isValid() ? ", valid" : ", violations=" + this.violations);
+    }
+}
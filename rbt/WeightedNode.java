@@ -0,0 +1,16 @@
+package rbt;
+
+/**
+ * 开启了顺序统计的树使用的节点，在 {@link Node} 的基础上记录子树大小。没有开启顺序统计的树不创建这种节点，
+ * 每个节点少一个int字段。按8字节对齐后，开启压缩指针时Node为32字节、WeightedNode为40字节，关闭压缩指针时两者都是48字节。
+ */
+class WeightedNode extends Node {
+    /**
+     * 以该节点为根的子树中各节点的multiplicity()之和，对普通节点来说就是节点数目。
+     */
+    int weight = 1;
+
+    WeightedNode(Node p, Node l, Node r, int v, boolean b) {
+        super(p, l, r, v, b);
+    }
+}
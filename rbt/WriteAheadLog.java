@@ -0,0 +1,362 @@
+package rbt;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * add/remove操作的预写日志（write-ahead log），带组提交（group commit）。
+ * 1、{@link #append(byte, int)} 只把记录追加到内存缓冲区并返回序号，不做IO；
+ * 2、后台的刷盘线程在有新记录时最多等待maxLatencyNanos，把这段时间内所有线程追加的记录一次性写入文件并fsync，
+ *    然后唤醒所有等待这些记录的线程。这样一次fsync的代价由一批写操作分摊，代价是每次提交最多增加maxLatencyNanos的延迟；
+ * 3、{@link #sync(long)} 等待指定序号之前的记录全部落盘。
+ *
+ * 文件格式：8字节文件头（magic、version），之后是定长为RECORD_BYTES的记录：op（1字节）、key（int）、前5字节的CRC32（int）。
+ * 打开时顺序重放所有记录。记录定长并且只在末尾追加，所以崩溃时只有最后一批记录可能只写了一部分：
+ * 遇到长度不足、校验和不符或者op未知的记录时，如果它之后再也没有有效的记录，就把它当作残缺的尾部，截断到最后一条完整的记录；
+ * 如果之后还有有效的记录，说明是文件中间损坏，这些记录已经落盘并被确认过，不能丢弃，抛出IOException并保持文件不变。
+ * 检查点完成后，调用 {@link #truncate()} 丢弃已被快照覆盖的记录。
+ */
+public final class WriteAheadLog implements Closeable {
+
+    public static final byte ADD = 1;
+    public static final byte REMOVE = 2;
+
+    private static final int MAGIC = 0x57544252; // "RBTW"
+    private static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 9;
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long maxLatencyNanos;
+    private final Thread flusher;
+    /**
+     * 刷盘线程写文件时持有这把锁，truncate也要持有它，保证两者不会交错。
+     */
+    private final Object ioLock = new Object();
+
+    // 以下字段由this保护
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    private final CRC32 crc = new CRC32();
+    /**
+     * 已追加的最后一条记录的序号，以及已经落盘的最后一条记录的序号。序号从1开始，只增不减。
+     */
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    private WriteAheadLog(FileChannel channel, long maxLatencyNanos) {
+        this.channel = channel;
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.flusher = new Thread(this::flushLoop, "rbt-wal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * 打开或创建日志文件，先按顺序重放其中的所有完整记录，再启动刷盘线程。
+     * @param file 日志文件
+     * @param maxLatencyNanos 组提交的延迟预算：刷盘线程收到第一条新记录后最多等待这么久再fsync，0表示立即刷盘
+     * @param onAdd 重放ADD记录
+     * @param onRemove 重放REMOVE记录
+     * @return 日志，使用完毕后必须close
+     * @throws IOException 文件不是日志格式，或者读写失败
+     */
+    public static WriteAheadLog open(Path file, long maxLatencyNanos, IntConsumer onAdd, IntConsumer onRemove)
+            throws IOException {
+        if (maxLatencyNanos < 0) {
+            throw new IllegalArgumentException("Illegal latency budget: " + maxLatencyNanos);
+        }
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            WriteAheadLog log = new WriteAheadLog(ch, maxLatencyNanos);
+            log.replay(onAdd, onRemove);
+            log.flusher.start();
+            return log;
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private void replay(IntConsumer onAdd, IntConsumer onRemove) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        if (this.channel.size() < HEADER_BYTES) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            this.channel.truncate(0);
+            this.channel.write(header, 0);
+            this.channel.force(false);
+            this.channel.position(HEADER_BYTES);
+            return;
+        }
+        this.channel.read(header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a write-ahead log");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported write-ahead log version: " + header.getInt(4));
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(INITIAL_BUFFER - INITIAL_BUFFER % RECORD_BYTES);
+        long good = HEADER_BYTES;
+        this.channel.position(HEADER_BYTES);
+        replay:
+        while (true) {
+            buf.clear();
+            while (buf.hasRemaining() && this.channel.read(buf) >= 0) {
+            }
+            buf.flip();
+            while (buf.remaining() >= RECORD_BYTES) {
+                int at = buf.position();
+                if (!this.isValid(buf, at)) {
+                    break replay;
+                }
+                byte op = buf.get();
+                int key = buf.getInt();
+                buf.position(at + RECORD_BYTES);
+                if (op == ADD) {
+                    onAdd.accept(key);
+                } else {
+                    onRemove.accept(key);
+                }
+                good += RECORD_BYTES;
+            }
+            if (buf.limit() < buf.capacity()) {
+                break; // 文件结束，剩下的不足一条记录
+            }
+        }
+        if (good < this.channel.size()) {
+            if (this.validRecordAfter(good + RECORD_BYTES)) {
+                throw new IOException("Corrupt log at offset " + good);
+            }
+            // 最后一次刷盘只写了一部分，丢弃残缺的尾部
+            this.channel.truncate(good);
+            this.channel.force(false);
+        }
+        this.channel.position(good);
+    }
+
+    /**
+     * @param buf 包含一条完整记录的缓冲区
+     * @param at 记录在buf中的起始位置
+     * @return 记录的校验和是否正确、op是否已知
+     */
+    private boolean isValid(ByteBuffer buf, int at) {
+        byte op = buf.get(at);
+        this.crc.reset();
+        this.crc.update(buf.array(), at, 5);
+        return buf.getInt(at + 5) == (int) this.crc.getValue() && (op == ADD || op == REMOVE);
+    }
+
+    /**
+     * 从文件位置from（记录边界）开始，检查之后是否还有有效的记录。只在重放遇到无效记录时调用。
+     */
+    private boolean validRecordAfter(long from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(INITIAL_BUFFER - INITIAL_BUFFER % RECORD_BYTES);
+        long pos = from;
+        while (true) {
+            buf.clear();
+            while (buf.hasRemaining() && this.channel.read(buf, pos + buf.position()) >= 0) {
+            }
+            buf.flip();
+            for (int at = 0; at + RECORD_BYTES <= buf.limit(); at += RECORD_BYTES) {
+                if (this.isValid(buf, at)) {
+                    return true;
+                }
+            }
+            if (buf.limit() < buf.capacity()) {
+                return false;
+            }
+            pos += buf.limit();
+        }
+    }
+
+    /**
+     * 追加一条记录，不等待落盘。
+     * @param op ADD或REMOVE
+     * @param key key
+     * @return 记录的序号，传给 {@link #sync(long)} 等待它落盘
+     * @throws IOException 日志已关闭或者之前的刷盘失败
+     */
+    public synchronized long append(byte op, int key) throws IOException {
+        this.checkUsable();
+        if (op != ADD && op != REMOVE) {
+            throw new IllegalArgumentException("Unknown op: " + op);
+        }
+        if (this.pending.remaining() < RECORD_BYTES) {
+            ByteBuffer bigger = ByteBuffer.allocate(this.pending.capacity() * 2);
+            this.pending.flip();
+            bigger.put(this.pending);
+            this.pending = bigger;
+        }
+        int at = this.pending.position();
+        this.pending.put(op).putInt(key);
+        this.crc.reset();
+        this.crc.update(this.pending.array(), at, 5);
+        this.pending.putInt((int) this.crc.getValue());
+        if (this.appended++ == this.durable) {
+            this.notifyAll(); // 唤醒等待新记录的刷盘线程
+        }
+        return this.appended;
+    }
+
+    /**
+     * @return 最后一条已追加记录的序号，没有时为0。
+     */
+    public synchronized long lastSequence() {
+        return this.appended;
+    }
+
+    /**
+     * 等待序号不超过seq的所有记录落盘。
+     * @param seq append返回的序号
+     * @throws IOException 刷盘失败，或者日志在记录落盘之前被关闭
+     */
+    public synchronized void sync(long seq) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (this.durable < seq) {
+                this.checkUsable();
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 丢弃所有已追加的记录（包括还没有落盘的），把文件截断到只剩文件头。只能在这些记录都已被检查点的快照覆盖之后调用，
+     * 并且调用者要保证截断期间没有新的append。等待这些记录的线程被视为已经落盘而返回。
+     * @throws IOException 截断失败
+     */
+    public void truncate() throws IOException {
+        synchronized (this.ioLock) {
+            long upTo;
+            synchronized (this) {
+                this.checkUsable();
+                this.pending.clear();
+                upTo = this.appended;
+            }
+            this.channel.truncate(HEADER_BYTES);
+            this.channel.force(false);
+            synchronized (this) {
+                this.durable = Math.max(this.durable, upTo);
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 把剩余的记录刷盘，停止刷盘线程并关闭文件。
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.flusher.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        this.channel.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (this.failure != null) {
+                throw new IOException("Write-ahead log flush failed", this.failure);
+            }
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (this.failure != null) {
+            throw new IOException("Write-ahead log flush failed", this.failure);
+        }
+        if (this.closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+    }
+
+    /**
+     * 刷盘线程：等待新记录，按延迟预算收集一批，写入并fsync，然后推进durable。关闭后把剩余记录刷完再退出。
+     */
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (this.pending.position() == 0 && !this.closed) {
+                        this.wait();
+                    }
+                    if (this.pending.position() == 0) {
+                        return;
+                    }
+                }
+                if (this.maxLatencyNanos > 0) {
+                    // 延迟预算：让这段时间内到达的记录搭同一次fsync的便车
+                    synchronized (this) {
+                        long deadline = System.nanoTime() + this.maxLatencyNanos;
+                        long left;
+                        while (!this.closed && (left = deadline - System.nanoTime()) > 0) {
+                            this.wait(left / 1_000_000, (int) (left % 1_000_000));
+                        }
+                    }
+                }
+                synchronized (this.ioLock) {
+                    ByteBuffer batch;
+                    long upTo;
+                    synchronized (this) {
+                        batch = this.pending;
+                        this.pending = this.spare;
+                        this.spare = batch;
+                        upTo = this.appended;
+                    }
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        this.channel.write(batch);
+                    }
+                    this.channel.force(false);
+                    batch.clear();
+                    synchronized (this) {
+                        this.durable = Math.max(this.durable, upTo);
+                        this.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.failure = e;
+                this.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                this.failure = new IOException("Write-ahead log flusher interrupted", e);
+                this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package rbt.bench;
+
+
+import rbt.ConcurrentRedBlackTree;
+import rbt.RedBlackTreeFromJDK;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多线程竞争下的吞吐量测试：对比 {@link ConcurrentRedBlackTree}（StampedLock乐观读）和用synchronized包装的
+ * {@link RedBlackTreeFromJDK}。线程数从1倍增到64，每个线程在固定时长内随机执行contains和add/remove，
+ * 报告所有线程的总吞吐量。
+ *
+ * 用法：java rbt.bench.ConcurrencyBenchmark [size=1000000] [readPercent=90] [seconds=2] [maxThreads=64]
+ *                                            [targets=stamped,synchronized]
+ */
+public class ConcurrencyBenchmark {
+
+    interface Target {
+        boolean contains(int key);
+
+        void add(int key);
+
+        void remove(int key);
+    }
+
+    static final class StampedTarget implements Target {
+        private final ConcurrentRedBlackTree tree = new ConcurrentRedBlackTree();
+
+        public boolean contains(int key) {
+            return tree.contains(key);
+        }
+
+        public void add(int key) {
+            tree.add(key);
+        }
+
+        public void remove(int key) {
+            tree.remove(key);
+        }
+    }
+
+    static final class SynchronizedTarget implements Target {
+        private final RedBlackTreeFromJDK tree = new RedBlackTreeFromJDK();
+
+        public synchronized boolean contains(int key) {
+            return tree.contains(key);
+        }
+
+        public synchronized void add(int key) {
+            tree.add(key);
+        }
+
+        public synchronized void remove(int key) {
+            tree.remove(key);
+        }
+    }
+
+    static Target newTarget(String name) {
+        switch (name) {
+            case "stamped":
+                return new StampedTarget();
+            case "synchronized":
+                return new SynchronizedTarget();
+            default:
+                throw new IllegalArgumentException("Unknown target: " + name);
+        }
+    }
+
+    static volatile int sink;
+
+    /**
+     * @return 所有线程在seconds秒内完成的操作总数
+     */
+    static long run(Target target, int threads, int keyRange, int readPercent, double seconds)
+            throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread w = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(id * 7919L + 1);
+                long ops = 0;
+                int hits = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!stop.get()) {
+                    for (int i = 0; i < 256; i++) {
+                        int key = random.nextInt(keyRange);
+                        int dice = random.nextInt(100);
+                        if (dice < readPercent) {
+                            if (target.contains(key)) {
+                                hits++;
+                            }
+                        } else if ((dice & 1) == 0) {
+                            target.add(key);
+                        } else {
+                            target.remove(key);
+                        }
+                    }
+                    ops += 256;
+                }
+                counts[id] = ops;
+                sink ^= hits;
+            });
+            workers.add(w);
+            w.start();
+        }
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers.get(t).join();
+            total += counts[t];
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = 1_000_000;
+        int readPercent = 90;
+        double seconds = 2;
+        int maxThreads = 64;
+        String[] targets = {"stamped", "synchronized"};
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "size":
+                    size = Integer.parseInt(value);
+                    break;
+                case "readPercent":
+                    readPercent = Integer.parseInt(value);
+                    break;
+                case "seconds":
+                    seconds = Double.parseDouble(value);
+                    break;
+                case "maxThreads":
+                    maxThreads = Integer.parseInt(value);
+                    break;
+                case "targets":
+                    targets = value.split(",");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        // 键空间为size的两倍，预先填入一半，这样add和remove大致平衡，树的大小保持稳定。
+        int keyRange = size * 2;
+        System.out.printf(Locale.ROOT, "%-13s %8s %8s %16s %14s%n", "target", "threads", "read%", "ops/s", "ops/s/thread");
+        for (String name : targets) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Target target = newTarget(name);
+                for (int k = 0; k < keyRange; k += 2) {
+                    target.add(k);
+                }
+                run(target, threads, keyRange, readPercent, Math.min(seconds, 0.5)); // 预热
+                long ops = run(target, threads, keyRange, readPercent, seconds);
+                double perSecond = ops / seconds;
+                System.out.printf(Locale.ROOT, "%-13s %8d %8d %16.0f %14.0f%n",
+                        name, threads, readPercent, perSecond, perSecond / threads);
+            }
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package rbt.bench;
+
+
+import rbt.RedBlackTreeFromJDK;
+import rbt.TopDownRedBlackTree;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 红黑树与 java.util.TreeMap / TreeSet 的对比基准测试。
+ * 仓库没有构建文件，因此这里不依赖JMH，而是自带预热、多轮测量和分配统计：
+ * 1、每个数据集（键分布 × 规模）的键数组预先生成，不计入测量时间；
+ * 2、每个操作先跑若干轮预热，让JIT完成编译，再跑若干轮测量，报告平均值；
+ * 3、吞吐量（ops/s）、平均耗时（ns/op）由 System.nanoTime 计算；
+ * 4、分配率（B/op）由 com.sun.management.ThreadMXBean#getThreadAllocatedBytes 统计当前线程的分配字节数，
+ *    同时统计测量期间的GC次数和GC耗时，相当于JMH的 -prof gc。
+ *
+ * 用法：java rbt.bench.TreeBenchmark [sizes=1000,100000] [dists=random,sequential,zipf,clustered]
+ *                                     [ops=add,remove,contains,scan,mixed]
+ *                                     [targets=rbt,rbt-finger,rbt-topdown,treemap,treeset] [warmup=3] [iterations=5] [seed=42]
+ * clustered分布下相邻的两次访问只相差很少的几个位置，用来比较rbt-finger（开启finger查找）和从root开始查找的rbt。
+ * rbt-topdown是没有parent字段的 {@link TopDownRedBlackTree}。random分布的键取自整个int范围，几乎没有重复，
+ * 只有它的add的B/op可以看作每个节点占用的内存；zipf分布的热点键重复很多，重复的add不分配节点，B/op偏低。
+ * 开启压缩指针时两种节点都是32字节，关闭时分别为48和40字节，见 {@link TopDownRedBlackTree}。
+ * 1亿规模的测试需要足够大的堆，例如 -Xmx24g。
+ */
+public class TreeBenchmark {
+
+    /**
+     * 被测的集合，统一成int接口。
+     */
+    interface Target {
+        void add(int key);
+
+        void remove(int key);
+
+        boolean contains(int key);
+
+        /**
+         * 按升序遍历全部键，返回键的和。
+         */
+        long scan();
+
+        int size();
+    }
+
+    static final class RbtTarget implements Target {
+        private final RedBlackTreeFromJDK tree = new RedBlackTreeFromJDK();
+
+        RbtTarget(boolean fingerSearch) {
+            tree.setFingerSearch(fingerSearch);
+        }
+
+        public void add(int key) {
+            tree.add(key);
+        }
+
+        public void remove(int key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(int key) {
+            return tree.contains(key);
+        }
+
+        public long scan() {
+            long[] sum = new long[1];
+            tree.forEach(k -> sum[0] += k);
+            return sum[0];
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    static final class TopDownTarget implements Target {
+        private final TopDownRedBlackTree tree = new TopDownRedBlackTree();
+
+        public void add(int key) {
+            tree.add(key);
+        }
+
+        public void remove(int key) {
+            tree.remove(key);
+        }
+
+        public boolean contains(int key) {
+            return tree.contains(key);
+        }
+
+        public long scan() {
+            long[] sum = new long[1];
+            tree.forEach(k -> sum[0] += k);
+            return sum[0];
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    static final class TreeMapTarget implements Target {
+        private final TreeMap<Integer, Integer> map = new TreeMap<>();
+
+        public void add(int key) {
+            map.put(key, key);
+        }
+
+        public void remove(int key) {
+            map.remove(key);
+        }
+
+        public boolean contains(int key) {
+            return map.containsKey(key);
+        }
+
+        public long scan() {
+            long sum = 0;
+            for (int k : map.keySet()) {
+                sum += k;
+            }
+            return sum;
+        }
+
+        public int size() {
+            return map.size();
+        }
+    }
+
+    static final class TreeSetTarget implements Target {
+        private final TreeSet<Integer> set = new TreeSet<>();
+
+        public void add(int key) {
+            set.add(key);
+        }
+
+        public void remove(int key) {
+            set.remove(key);
+        }
+
+        public boolean contains(int key) {
+            return set.contains(key);
+        }
+
+        public long scan() {
+            long sum = 0;
+            for (int k : set) {
+                sum += k;
+            }
+            return sum;
+        }
+
+        public int size() {
+            return set.size();
+        }
+    }
+
+    static Target newTarget(String name) {
+        switch (name) {
+            case "rbt":
+                return new RbtTarget(false);
+            case "rbt-finger":
+                return new RbtTarget(true);
+            case "rbt-topdown":
+                return new TopDownTarget();
+            case "treemap":
+                return new TreeMapTarget();
+            case "treeset":
+                return new TreeSetTarget();
+            default:
+                throw new IllegalArgumentException("Unknown target: " + name);
+        }
+    }
+
+    /**
+     * 一个被测操作。prepare不计时，run计时，run返回执行的操作数。
+     */
+    interface Op {
+        Target prepare(String target, int[] keys);
+
+        long run(Target t, int[] keys, int[] probes);
+    }
+
+    static final class AddOp implements Op {
+        public Target prepare(String target, int[] keys) {
+            return newTarget(target);
+        }
+
+        public long run(Target t, int[] keys, int[] probes) {
+            for (int k : keys) {
+                t.add(k);
+            }
+            return keys.length;
+        }
+    }
+
+    static final class RemoveOp implements Op {
+        public Target prepare(String target, int[] keys) {
+            return filled(target, keys);
+        }
+
+        public long run(Target t, int[] keys, int[] probes) {
+            for (int k : probes) {
+                t.remove(k);
+            }
+            return probes.length;
+        }
+    }
+
+    static final class ContainsOp implements Op {
+        public Target prepare(String target, int[] keys) {
+            return filled(target, keys);
+        }
+
+        public long run(Target t, int[] keys, int[] probes) {
+            int hits = 0;
+            for (int k : probes) {
+                if (t.contains(k)) {
+                    hits++;
+                }
+            }
+            sink ^= hits;
+            return probes.length;
+        }
+    }
+
+    /**
+     * 后继遍历：把整棵树按升序走一遍，每个键算一次操作。
+     */
+    static final class ScanOp implements Op {
+        public Target prepare(String target, int[] keys) {
+            return filled(target, keys);
+        }
+
+        public long run(Target t, int[] keys, int[] probes) {
+            sink ^= (int) t.scan();
+            return t.size();
+        }
+    }
+
+    /**
+     * 混合负载：50% contains，25% add，25% remove。
+     */
+    static final class MixedOp implements Op {
+        public Target prepare(String target, int[] keys) {
+            return filled(target, keys);
+        }
+
+        public long run(Target t, int[] keys, int[] probes) {
+            int hits = 0;
+            for (int i = 0; i < probes.length; i++) {
+                int k = probes[i];
+                switch (i & 3) {
+                    case 0:
+                        t.add(k);
+                        break;
+                    case 1:
+                        t.remove(k);
+                        break;
+                    default:
+                        if (t.contains(k)) {
+                            hits++;
+                        }
+                }
+            }
+            sink ^= hits;
+            return probes.length;
+        }
+    }
+
+    static Op newOp(String name) {
+        switch (name) {
+            case "add":
+                return new AddOp();
+            case "remove":
+                return new RemoveOp();
+            case "contains":
+                return new ContainsOp();
+            case "scan":
+                return new ScanOp();
+            case "mixed":
+                return new MixedOp();
+            default:
+                throw new IllegalArgumentException("Unknown op: " + name);
+        }
+    }
+
+    /**
+     * 防止JIT把查询结果当作死代码消除。
+     */
+    static volatile int sink;
+
+    static Target filled(String target, int[] keys) {
+        Target t = newTarget(target);
+        for (int k : keys) {
+            t.add(k);
+        }
+        return t;
+    }
+
+    /***************************************************************************************************************/
+    /* 键分布 */
+
+    static int[] keys(String dist, int n, long seed) {
+        int[] keys = new int[n];
+        switch (dist) {
+            case "random": {
+                Random r = new Random(seed);
+                for (int i = 0; i < n; i++) {
+                    keys[i] = r.nextInt();
+                }
+                break;
+            }
+            case "sequential":
+                for (int i = 0; i < n; i++) {
+                    keys[i] = i;
+                }
+                break;
+            case "zipf": {
+                Zipf z = new Zipf(n, 0.99, seed);
+                for (int i = 0; i < n; i++) {
+                    keys[i] = scramble(z.next());
+                }
+                break;
+            }
+            case "clustered":
+                keys = clustered(n, seed, 0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown distribution: " + dist);
+        }
+        return keys;
+    }
+
+    static final int CLUSTER = 64;
+    static final int CLUSTER_GAP = 8;
+
+    /**
+     * 局部性很强的访问序列：把位置 [0, n) 切成长度为CLUSTER的块，块的顺序随机，块内的位置也随机打乱，
+     * 因此每个位置恰好访问一次，而相邻两次访问通常落在同一块内、只相差几十个位置。位置p对应的键为p * CLUSTER_GAP，
+     * missPercent%的键再加1，落在两个已有的键之间。
+     */
+    static int[] clustered(int n, long seed, int missPercent) {
+        Random r = new Random(seed);
+        int blocks = (n + CLUSTER - 1) / CLUSTER;
+        int[] order = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            order[i] = i;
+        }
+        shuffle(order, 0, blocks, r);
+        int[] keys = new int[n];
+        int len = 0;
+        for (int b : order) {
+            int from = len;
+            for (int p = b * CLUSTER; p < Math.min(n, (b + 1) * CLUSTER); p++) {
+                keys[len++] = p * CLUSTER_GAP + (r.nextInt(100) < missPercent ? 1 : 0);
+            }
+            shuffle(keys, from, len, r);
+        }
+        return keys;
+    }
+
+    static void shuffle(int[] a, int from, int to, Random r) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + r.nextInt(i - from + 1);
+            int tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    /**
+     * 查询用的键：原键打乱顺序。clustered分布要保持局部性，改为重新生成一个块的顺序不同、四分之一不命中的序列。
+     */
+    static int[] probes(String dist, int[] keys, long seed) {
+        if (dist.equals("clustered")) {
+            return clustered(keys.length, seed ^ 0x5DEECE66DL, 25);
+        }
+        int[] p = keys.clone();
+        shuffle(p, 0, p.length, new Random(seed ^ 0x5DEECE66DL));
+        return p;
+    }
+
+    /**
+     * 把Zipf的排名打散到整个int空间，避免热点键恰好是最小的几个键。
+     */
+    static int scramble(long rank) {
+        long h = rank * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * YCSB风格的Zipf分布生成器，返回 [0, n) 的排名，排名越小越热。
+     */
+    static final class Zipf {
+        private final long n;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random random;
+
+        Zipf(long n, double theta, long seed) {
+            this.n = n;
+            this.theta = theta;
+            this.random = new Random(seed);
+            double zeta2 = zeta(2, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        long next() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return (long) (n * Math.pow(eta * u - eta + 1, alpha));
+        }
+    }
+
+    /***************************************************************************************************************/
+    /* 测量 */
+
+    static final class Result {
+        double nsPerOp;
+        double bytesPerOp;
+        long gcCount;
+        long gcMillis;
+    }
+
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static long[] gcStats() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    static Result measure(Op op, String target, int[] keys, int[] probes, int warmup, int iterations) {
+        for (int i = 0; i < warmup; i++) {
+            op.run(op.prepare(target, keys), keys, probes);
+        }
+        Result result = new Result();
+        long totalOps = 0;
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            Target t = op.prepare(target, keys);
+            long[] gc0 = gcStats();
+            long b0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            long ops = op.run(t, keys, probes);
+            long t1 = System.nanoTime();
+            long b1 = allocatedBytes();
+            long[] gc1 = gcStats();
+            sink ^= t.size();
+            totalOps += ops;
+            totalNanos += t1 - t0;
+            totalBytes += b1 - b0;
+            result.gcCount += gc1[0] - gc0[0];
+            result.gcMillis += gc1[1] - gc0[1];
+        }
+        result.nsPerOp = (double) totalNanos / totalOps;
+        result.bytesPerOp = (double) totalBytes / totalOps;
+        return result;
+    }
+
+    static List<String> list(String value) {
+        return new ArrayList<>(Arrays.asList(value.split(",")));
+    }
+
+    public static void main(String[] args) {
+        List<String> sizes = list("1000,10000,100000,1000000");
+        List<String> dists = list("random,sequential,zipf");
+        List<String> ops = list("add,remove,contains,scan,mixed");
+        List<String> targets = list("rbt,treemap,treeset");
+        int warmup = 3;
+        int iterations = 5;
+        long seed = 42;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "sizes":
+                    sizes = list(value);
+                    break;
+                case "dists":
+                    dists = list(value);
+                    break;
+                case "ops":
+                    ops = list(value);
+                    break;
+                case "targets":
+                    targets = list(value);
+                    break;
+                case "warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-11s %-10s %-11s %11s %12s %14s %10s %8s %8s%n",
+                "target", "op", "dist", "size", "ns/op", "ops/s", "B/op", "gc.count", "gc.ms");
+        for (String dist : dists) {
+            for (String size : sizes) {
+                int n = Integer.parseInt(size);
+                int[] keys = keys(dist, n, seed);
+                int[] probes = probes(dist, keys, seed);
+                for (String opName : ops) {
+                    Op op = newOp(opName);
+                    for (String target : targets) {
+                        Result r = measure(op, target, keys, probes, warmup, iterations);
+                        System.out.printf(Locale.ROOT, "%-11s %-10s %-11s %11d %12.2f %14.0f %10.2f %8d %8d%n",
+                                target, opName, dist, n, r.nsPerOp, 1e9 / r.nsPerOp, r.bytesPerOp,
+                                r.gcCount, r.gcMillis);
+                    }
+                }
+            }
+        }
+    }
+}
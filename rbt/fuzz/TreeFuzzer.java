@@ -0,0 +1,871 @@
+package rbt.fuzz;
+
+
+import rbt.IntLongSortedMap;
+import rbt.IntMultiset;
+import rbt.RedBlackTreeFromJDK;
+import rbt.ValidationReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * {@link RedBlackTreeFromJDK} 及其子类的差分模糊测试：对同一串随机操作，同时在红黑树和 TreeMap&lt;Integer, Long&gt; 上执行，
+ * 逐个比较每个操作的结果。
+ * 1、种子的第2、3位决定被测的类：RedBlackTreeFromJDK（TreeMap中的值恒为0）、IntMultiset（值为出现次数）、
+ *    IntLongSortedMap（值为映射的值）。奇数种子以及IntMultiset开启顺序统计，种子的第2位为1时开启finger查找；
+ * 2、每个种子生成一串操作：大部分是add、remove，其次是contains、floor、ceiling、lower、higher、first、last、
+ *    count/get、select、rank、countInRange等查询，少量是addAll、removeAll、removeRange、removeBelow、removeAbove、
+ *    split后join或concat、与另一棵树的union、intersection、difference、用迭代器（映射用游标）边遍历边删除。
+ *    键的范围随种子变化，小范围产生大量重复的增删，大范围让树长得更深；批量操作的那一批值由操作的参数确定地生成；
+ * 3、每个操作比较这个操作本身的返回值（包括批量删除返回的个数、select(i)和rank的结果）以及size；
+ *    每隔validateEvery个操作调用一次validate()检查红黑树的全部性质，并逐个比较全部的值、出现次数或映射的值；
+ * 4、发现不一致或异常时，把操作序列不断地删掉一段（先删一半，再删四分之一……直到单个操作），只要仍然失败就保留删减后的序列，
+ *    最后打印出可以直接粘贴到测试中的最小复现代码。
+ *
+ * 用法：java rbt.fuzz.TreeFuzzer [seeds=1000] [startSeed=0] [ops=10000] [validateEvery=1024]
+ */
+public class TreeFuzzer {
+
+    static final int ADD = 0;
+    static final int REMOVE = 1;
+    static final int CONTAINS = 2;
+    static final int FLOOR = 3;
+    static final int CEILING = 4;
+    static final int LOWER = 5;
+    static final int HIGHER = 6;
+    static final int FIRST = 7;
+    static final int LAST = 8;
+    static final int VALUE = 9;
+    static final int SELECT = 10;
+    static final int RANK = 11;
+    static final int COUNT_IN_RANGE = 12;
+    static final int ADD_ALL = 13;
+    static final int REMOVE_ALL = 14;
+    static final int REMOVE_RANGE = 15;
+    static final int REMOVE_BELOW = 16;
+    static final int REMOVE_ABOVE = 17;
+    static final int SPLIT_JOIN = 18;
+    static final int UNION = 19;
+    static final int INTERSECTION = 20;
+    static final int DIFFERENCE = 21;
+    static final int ITERATOR_REMOVE = 22;
+    static final int OP_COUNT = 23;
+
+    private static final String[] OP_NAMES = {
+            "add", "remove", "contains", "floor", "ceiling", "lower", "higher", "first", "last",
+            "value", "select", "rank", "countInRange",
+            "addAll", "removeAll", "removeRange", "removeBelow", "removeAbove", "splitJoin",
+            "union", "intersection", "difference", "iteratorRemove"
+    };
+
+    static final int SET = 0;
+    static final int MULTISET = 1;
+    static final int MAP = 2;
+
+    private static final String[] KIND_NAMES = {"RedBlackTreeFromJDK", "IntMultiset", "IntLongSortedMap"};
+
+    /**
+     * 各种子轮流使用的键范围：从极小（几乎每次都命中已有的键）到整个int范围。
+     */
+    private static final int[] KEY_RANGES = {16, 256, 4096, 1 << 20, 0};
+
+    /**
+     * 一串操作。ops[i]是操作类型，keys[i]、args[i]是参数（first、last忽略参数）。
+     */
+    static final class Trace {
+        final int[] ops;
+        final int[] keys;
+        final int[] args;
+        final int kind;
+        final int range;
+        final boolean orderStatistics;
+        final boolean fingerSearch;
+
+        Trace(int[] ops, int[] keys, int[] args, int kind, int range, boolean orderStatistics, boolean fingerSearch) {
+            this.ops = ops;
+            this.keys = keys;
+            this.args = args;
+            this.kind = kind;
+            this.range = range;
+            this.orderStatistics = orderStatistics;
+            this.fingerSearch = fingerSearch;
+        }
+
+        int length() {
+            return this.ops.length;
+        }
+
+        /**
+         * @return 删掉[from, to)之后的新序列
+         */
+        Trace without(int from, int to) {
+            return new Trace(cut(this.ops, from, to), cut(this.keys, from, to), cut(this.args, from, to),
+                    this.kind, this.range, this.orderStatistics, this.fingerSearch);
+        }
+
+        private static int[] cut(int[] a, int from, int to) {
+            int[] b = new int[a.length - (to - from)];
+            System.arraycopy(a, 0, b, 0, from);
+            System.arraycopy(a, to, b, from, a.length - to);
+            return b;
+        }
+    }
+
+    /**
+     * 执行中的状态。split、join和集合运算返回新的树，所以tree会被替换。
+     * ref中的值：RedBlackTreeFromJDK恒为0，IntMultiset为出现次数，IntLongSortedMap为映射的值。
+     */
+    static final class State {
+        RedBlackTreeFromJDK tree;
+        final TreeMap<Integer, Long> ref = new TreeMap<>();
+    }
+
+    static Trace generate(long seed, int length) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int range = KEY_RANGES[(int) Math.floorMod(seed, (long) KEY_RANGES.length)];
+        int kind = (int) Math.floorMod(seed >> 2, 3L);
+        // 增删比例也随种子变化，让树经历持续增长、稳定和收缩几种状态
+        int addPercent = 30 + random.nextInt(40);
+        int[] ops = new int[length];
+        int[] keys = new int[length];
+        int[] args = new int[length];
+        for (int i = 0; i < length; i++) {
+            int dice = random.nextInt(100);
+            if (dice < addPercent) {
+                ops[i] = ADD;
+            } else if (dice < 80) {
+                ops[i] = REMOVE;
+            } else if (dice < 97) {
+                ops[i] = CONTAINS + random.nextInt(ADD_ALL - CONTAINS);
+            } else {
+                ops[i] = ADD_ALL + random.nextInt(OP_COUNT - ADD_ALL);
+            }
+            keys[i] = randomKey(random, range);
+            args[i] = random.nextInt();
+        }
+        return new Trace(ops, keys, args, kind, range, kind == MULTISET || (seed & 1) == 1, (seed & 2) == 2);
+    }
+
+    private static int randomKey(SplittableRandom random, int range) {
+        return range == 0 ? random.nextInt() : random.nextInt(range) - range / 2;
+    }
+
+    /**
+     * 批量操作使用的一批值（无序、可能重复），由arg确定：四分之一的批次最多256个值，用来走到批量操作中按归并重建的分支，
+     * 其余最多8个值。
+     */
+    static int[] batch(int arg, int range) {
+        SplittableRandom random = new SplittableRandom(arg);
+        int[] keys = new int[random.nextInt(4) == 0 ? 1 + random.nextInt(256) : 1 + random.nextInt(8)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = randomKey(random, range);
+        }
+        return keys;
+    }
+
+    /**
+     * 区间操作的上界：从key出发，宽度由arg确定，大约八分之一的情况下小于key。
+     */
+    static int upperBound(int key, int arg, int range) {
+        int span = range == 0 ? 1 << 30 : range;
+        long hi = (long) key + Math.floorMod(arg, span) - span / 8;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, hi));
+    }
+
+    /**
+     * 迭代器删除的间隔：下标j满足 j % every == offset 的元素被删除。
+     */
+    private static int removeEvery(int arg) {
+        return 2 + (arg & 3);
+    }
+
+    private static RedBlackTreeFromJDK newTree(Trace trace) {
+        switch (trace.kind) {
+            case MULTISET:
+                return new IntMultiset();
+            case MAP:
+                return new IntLongSortedMap(trace.orderStatistics);
+            default:
+                return new RedBlackTreeFromJDK(trace.orderStatistics);
+        }
+    }
+
+    /**
+     * 执行trace，逐个比较红黑树和TreeMap的结果。
+     * @param validateEvery 每隔多少个操作做一次完整检查
+     * @return 第一个不一致的描述；全部一致时返回null
+     */
+    static String run(Trace trace, int validateEvery) {
+        State state = new State();
+        state.tree = newTree(trace);
+        state.tree.setFingerSearch(trace.fingerSearch);
+        for (int i = 0; i < trace.length(); i++) {
+            String where = "op #" + i + " " + describe(trace, i);
+            try {
+                String error = step(trace, state, trace.ops[i], trace.keys[i], trace.args[i]);
+                if (error != null) {
+                    return where + ": " + error;
+                }
+                if (state.tree.size() != state.ref.size()) {
+                    return where + ": size is " + state.tree.size() + ", expected " + state.ref.size();
+                }
+                if ((i + 1) % validateEvery == 0 || i == trace.length() - 1) {
+                    ValidationReport report = state.tree.validate();
+                    if (!report.isValid()) {
+                        return where + ": " + report.violations();
+                    }
+                    error = compareContents(trace, state);
+                    if (error != null) {
+                        return where + ": " + error;
+                    }
+                }
+            } catch (RuntimeException e) {
+                return where + ": " + e;
+            }
+        }
+        return null;
+    }
+
+    private static String step(Trace trace, State state, int op, int key, int arg) {
+        RedBlackTreeFromJDK tree = state.tree;
+        TreeMap<Integer, Long> ref = state.ref;
+        switch (op) {
+            case ADD:
+                return add(trace, state, key, arg);
+            case REMOVE:
+                return remove(trace, state, key, arg);
+            case CONTAINS:
+                return compare(tree.contains(key), ref.containsKey(key));
+            case FLOOR:
+                return compare(tree.floor(key), ref.floorKey(key));
+            case CEILING:
+                return compare(tree.ceiling(key), ref.ceilingKey(key));
+            case LOWER:
+                return compare(tree.lower(key), ref.lowerKey(key));
+            case HIGHER:
+                return compare(tree.higher(key), ref.higherKey(key));
+            case FIRST:
+                return compare(firstOrNull(tree, true), ref.isEmpty() ? null : ref.firstKey());
+            case LAST:
+                return compare(firstOrNull(tree, false), ref.isEmpty() ? null : ref.lastKey());
+            case VALUE:
+                return value(trace, state, key);
+            case SELECT:
+                return select(trace, state, arg);
+            case RANK:
+                if (!trace.orderStatistics) {
+                    return expectThrows(UnsupportedOperationException.class, () -> tree.rank(key));
+                }
+                return compare((long) tree.rank(key), weight(trace, ref.headMap(key, false).values()));
+            case COUNT_IN_RANGE: {
+                int hi = upperBound(key, arg, trace.range);
+                if (!trace.orderStatistics) {
+                    return expectThrows(UnsupportedOperationException.class, () -> tree.countInRange(key, hi));
+                }
+                long expected = key > hi ? 0 : weight(trace, ref.subMap(key, true, hi, true).values());
+                return compare((long) tree.countInRange(key, hi), expected);
+            }
+            case ADD_ALL:
+                return addAll(trace, state, key, arg);
+            case REMOVE_ALL: {
+                int[] keys = batch(arg, trace.range);
+                Arrays.sort(keys);
+                int expected = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if ((i == 0 || keys[i - 1] != keys[i]) && ref.remove(keys[i]) != null) {
+                        expected++;
+                    }
+                }
+                return compare(tree.removeAll(keys), expected);
+            }
+            case REMOVE_RANGE: {
+                int hi = upperBound(key, arg, trace.range);
+                int expected = key > hi ? 0 : clear(ref.subMap(key, true, hi, true));
+                return compare(tree.removeRange(key, hi), expected);
+            }
+            case REMOVE_BELOW:
+                return compare(tree.removeBelow(key), clear(ref.headMap(key, false)));
+            case REMOVE_ABOVE:
+                return compare(tree.removeAbove(key), clear(ref.tailMap(key, false)));
+            case SPLIT_JOIN:
+                return splitJoin(trace, state, key, arg);
+            case UNION:
+            case INTERSECTION:
+            case DIFFERENCE:
+                return setOperation(trace, state, op, arg);
+            case ITERATOR_REMOVE:
+                return trace.kind == MAP ? cursorRemove(state, key, arg) : iteratorRemove(state, key, arg);
+            default:
+                throw new IllegalArgumentException("Unknown op: " + op);
+        }
+    }
+
+    /**
+     * 集合：add(key)；多重集合：add(key)或add(key, occurrences)，后者比较返回的原出现次数；
+     * 映射：put(key, arg)或addTo(key, arg)，后者比较返回的新值。
+     */
+    private static String add(Trace trace, State state, int key, int arg) {
+        TreeMap<Integer, Long> ref = state.ref;
+        switch (trace.kind) {
+            case MULTISET: {
+                IntMultiset multiset = (IntMultiset) state.tree;
+                long previous = ref.getOrDefault(key, 0L);
+                if ((arg & 4) == 0) {
+                    multiset.add(key);
+                    ref.put(key, previous + 1);
+                    return compare((long) multiset.count(key), previous + 1);
+                }
+                ref.put(key, previous + occurrences(arg));
+                return compare((long) multiset.add(key, occurrences(arg)), previous);
+            }
+            case MAP: {
+                IntLongSortedMap map = (IntLongSortedMap) state.tree;
+                if ((arg & 1) == 0) {
+                    map.put(key, arg);
+                    ref.put(key, (long) arg);
+                    return compare(map.get(key, -1), (long) arg);
+                }
+                return compare(map.addTo(key, arg), ref.merge(key, (long) arg, Long::sum));
+            }
+            default:
+                state.tree.add(key);
+                ref.put(key, 0L);
+                return state.tree.contains(key) ? null : "value missing after add";
+        }
+    }
+
+    /**
+     * 多重集合：remove(key)或remove(key, occurrences)，后者比较返回的原出现次数；其他：remove(key)。
+     */
+    private static String remove(Trace trace, State state, int key, int arg) {
+        TreeMap<Integer, Long> ref = state.ref;
+        if (trace.kind == MULTISET) {
+            IntMultiset multiset = (IntMultiset) state.tree;
+            long previous = ref.getOrDefault(key, 0L);
+            int occurrences = (arg & 4) == 0 ? 1 : occurrences(arg);
+            if (previous > occurrences) {
+                ref.put(key, previous - occurrences);
+            } else {
+                ref.remove(key);
+            }
+            if ((arg & 4) == 0) {
+                multiset.remove(key);
+                return compare((long) multiset.count(key), ref.getOrDefault(key, 0L));
+            }
+            return compare((long) multiset.remove(key, occurrences), previous);
+        }
+        state.tree.remove(key);
+        ref.remove(key);
+        return state.tree.contains(key) ? "value still present after remove" : null;
+    }
+
+    private static int occurrences(int arg) {
+        return 1 + ((arg >>> 3) & 3);
+    }
+
+    private static String value(Trace trace, State state, int key) {
+        switch (trace.kind) {
+            case MULTISET:
+                return compare((long) ((IntMultiset) state.tree).count(key), state.ref.getOrDefault(key, 0L));
+            case MAP:
+                return compare(((IntLongSortedMap) state.tree).get(key, -1), state.ref.getOrDefault(key, -1L));
+            default:
+                return compare(state.tree.contains(key), state.ref.containsKey(key));
+        }
+    }
+
+    /**
+     * select(arg对总数取模)。多重集合按出现次数计算，每个值占据和出现次数一样多的位置；树为空时应当抛出IndexOutOfBoundsException。
+     */
+    private static String select(Trace trace, State state, int arg) {
+        RedBlackTreeFromJDK tree = state.tree;
+        if (!trace.orderStatistics) {
+            return expectThrows(UnsupportedOperationException.class, () -> tree.select(0));
+        }
+        long total = weight(trace, state.ref.values());
+        int index = Math.floorMod(arg, (int) Math.max(1, total));
+        if (index >= total) {
+            return expectThrows(IndexOutOfBoundsException.class, () -> tree.select(index));
+        }
+        long remaining = index;
+        for (Map.Entry<Integer, Long> e : state.ref.entrySet()) {
+            remaining -= trace.kind == MULTISET ? e.getValue() : 1;
+            if (remaining < 0) {
+                return compare(tree.select(index), e.getKey());
+            }
+        }
+        throw new AssertionError("Index " + index + " is beyond " + total);
+    }
+
+    /**
+     * @return 多重集合为出现次数之和，其他为值的个数
+     */
+    private static long weight(Trace trace, Collection<Long> values) {
+        if (trace.kind != MULTISET) {
+            return values.size();
+        }
+        long sum = 0;
+        for (long count : values) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static int clear(Map<Integer, Long> view) {
+        int n = view.size();
+        view.clear();
+        return n;
+    }
+
+    /**
+     * addAll(int[])或addAll(IntStream)，比较返回的新加入的不同值的个数。新加入的键在映射中的值为0。
+     */
+    private static String addAll(Trace trace, State state, int key, int arg) {
+        int[] keys = batch(arg, trace.range);
+        int expected = 0;
+        for (int k : keys) {
+            if (!state.ref.containsKey(k)) {
+                expected++;
+            }
+            state.ref.merge(k, trace.kind == MULTISET ? 1L : 0L, Long::sum);
+        }
+        int added = (key & 1) == 0 ? state.tree.addAll(keys) : state.tree.addAll(IntStream.of(keys));
+        return compare(added, expected);
+    }
+
+    /**
+     * 以key分裂，检查两部分的大小和红黑树性质，再拼回去：arg为偶数或key存在时用concat，否则用key作为pivot调用join，
+     * 这时key被加入（映射的值为0，多重集合出现1次）。
+     */
+    private static String splitJoin(Trace trace, State state, int key, int arg) {
+        TreeMap<Integer, Long> ref = state.ref;
+        RedBlackTreeFromJDK[] parts = state.tree.split(key);
+        if (state.tree.size() != 0) {
+            return "source still has " + state.tree.size() + " values after split";
+        }
+        String error = compare(parts[0].size(), ref.headMap(key, false).size());
+        if (error == null) {
+            error = compare(parts[1].size(), ref.tailMap(key, true).size());
+        }
+        for (int i = 0; error == null && i < 2; i++) {
+            ValidationReport report = parts[i].validate();
+            if (!report.isValid()) {
+                error = report.violations().toString();
+            }
+        }
+        if (error != null) {
+            return "split part " + error;
+        }
+        if ((arg & 1) == 0 || ref.containsKey(key)) {
+            state.tree = RedBlackTreeFromJDK.concat(parts[0], parts[1]);
+        } else {
+            state.tree = RedBlackTreeFromJDK.join(parts[0], key, parts[1]);
+            ref.put(key, trace.kind == MULTISET ? 1L : 0L);
+        }
+        state.tree.setFingerSearch(trace.fingerSearch);
+        return parts[0].size() == 0 && parts[1].size() == 0 ? null : "parts not emptied by join";
+    }
+
+    /**
+     * 与由batch(arg)建成的同类树做集合运算。并集和交集中两边都有的值保留当前树的出现次数或映射的值；
+     * 映射中batch[j]的值为j（重复的键取最后一个）。
+     */
+    private static String setOperation(Trace trace, State state, int op, int arg) {
+        TreeMap<Integer, Long> ref = state.ref;
+        int[] keys = batch(arg, trace.range);
+        RedBlackTreeFromJDK other = newTree(trace);
+        TreeMap<Integer, Long> otherRef = new TreeMap<>();
+        if (trace.kind == MAP) {
+            for (int j = 0; j < keys.length; j++) {
+                ((IntLongSortedMap) other).put(keys[j], j);
+                otherRef.put(keys[j], (long) j);
+            }
+        } else {
+            other.addAll(keys);
+            for (int k : keys) {
+                otherRef.merge(k, trace.kind == MULTISET ? 1L : 0L, Long::sum);
+            }
+        }
+        RedBlackTreeFromJDK a = state.tree;
+        if (op == UNION) {
+            state.tree = RedBlackTreeFromJDK.union(a, other);
+            for (Map.Entry<Integer, Long> e : otherRef.entrySet()) {
+                ref.putIfAbsent(e.getKey(), e.getValue());
+            }
+        } else if (op == INTERSECTION) {
+            state.tree = RedBlackTreeFromJDK.intersection(a, other);
+            ref.keySet().retainAll(otherRef.keySet());
+        } else {
+            state.tree = RedBlackTreeFromJDK.difference(a, other);
+            ref.keySet().removeAll(otherRef.keySet());
+        }
+        state.tree.setFingerSearch(trace.fingerSearch);
+        return a.size() == 0 && other.size() == 0 ? null : "operands not emptied";
+    }
+
+    /**
+     * 用升序（key为奇数时降序）迭代器遍历，删除下标满足 j % every == offset 的值，检查遍历的顺序。
+     */
+    private static String iteratorRemove(State state, int key, int arg) {
+        boolean ascending = (key & 1) == 0;
+        int every = removeEvery(arg);
+        int offset = Math.floorMod(key, every);
+        List<Integer> expected = new ArrayList<>(ascending ? state.ref.keySet() : state.ref.descendingKeySet());
+        PrimitiveIterator.OfInt it = ascending ? state.tree.iterator() : state.tree.descendingIterator();
+        int j = 0;
+        for (; it.hasNext(); j++) {
+            int k = it.nextInt();
+            if (j >= expected.size() || k != expected.get(j)) {
+                return "iterator returned " + k + " at " + j + ", expected "
+                        + (j < expected.size() ? expected.get(j) : "end");
+            }
+            if (j % every == offset) {
+                it.remove();
+                state.ref.remove(k);
+            }
+        }
+        return compare(j, expected.size());
+    }
+
+    /**
+     * 映射用游标遍历，删除下标满足 j % every == offset 的条目，其余奇数下标的条目把值加上arg，检查遍历的键和值。
+     */
+    private static String cursorRemove(State state, int key, int arg) {
+        int every = removeEvery(arg);
+        int offset = Math.floorMod(key, every);
+        Iterator<Map.Entry<Integer, Long>> expected = new ArrayList<>(state.ref.entrySet()).iterator();
+        IntLongSortedMap.Cursor cursor = ((IntLongSortedMap) state.tree).cursor();
+        for (int j = 0; cursor.advance(); j++) {
+            if (!expected.hasNext()) {
+                return "cursor returned " + cursor.key() + " at " + j + ", expected end";
+            }
+            Map.Entry<Integer, Long> e = expected.next();
+            if (cursor.key() != e.getKey() || cursor.value() != e.getValue()) {
+                return "cursor returned " + cursor.key() + "=" + cursor.value() + " at " + j + ", expected " + e;
+            }
+            if (j % every == offset) {
+                cursor.remove();
+                state.ref.remove(e.getKey());
+            } else if (j % 2 == 1) {
+                cursor.setValue(cursor.value() + arg);
+                state.ref.put(e.getKey(), e.getValue() + arg);
+            }
+        }
+        return expected.hasNext() ? "cursor ended early, expected " + expected.next() : null;
+    }
+
+    /**
+     * 完整比较：按升序逐个比较全部的值，以及多重集合的出现次数（和totalSize）、映射的值。
+     */
+    private static String compareContents(Trace trace, State state) {
+        List<Long> actual = new ArrayList<>();
+        switch (trace.kind) {
+            case MULTISET: {
+                IntMultiset multiset = (IntMultiset) state.tree;
+                multiset.forEachEntry((k, count) -> {
+                    actual.add((long) k);
+                    actual.add((long) count);
+                });
+                String error = compare((long) multiset.totalSize(), weight(trace, state.ref.values()));
+                if (error != null) {
+                    return "totalSize " + error;
+                }
+                break;
+            }
+            case MAP:
+                ((IntLongSortedMap) state.tree).forEach((k, v) -> {
+                    actual.add((long) k);
+                    actual.add(v);
+                });
+                break;
+            default:
+                state.tree.forEach(k -> {
+                    actual.add((long) k);
+                    actual.add(0L);
+                });
+        }
+        List<Long> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Long> e : state.ref.entrySet()) {
+            expected.add((long) e.getKey());
+            expected.add(e.getValue());
+        }
+        for (int i = 0; i < Math.min(actual.size(), expected.size()); i += 2) {
+            if (!actual.get(i).equals(expected.get(i)) || !actual.get(i + 1).equals(expected.get(i + 1))) {
+                return "contents differ at " + i / 2 + ": got " + actual.get(i) + "=" + actual.get(i + 1)
+                        + ", expected " + expected.get(i) + "=" + expected.get(i + 1);
+            }
+        }
+        return compare(actual.size() / 2, expected.size() / 2);
+    }
+
+    private static Integer firstOrNull(RedBlackTreeFromJDK tree, boolean first) {
+        try {
+            return first ? tree.first() : tree.last();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private static String expectThrows(Class<? extends RuntimeException> type, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            return type.isInstance(e) ? null : "threw " + e + ", expected " + type.getSimpleName();
+        }
+        return "returned normally, expected " + type.getSimpleName();
+    }
+
+    private static String compare(OptionalInt actual, Integer expected) {
+        return compare(actual.isPresent() ? Integer.valueOf(actual.getAsInt()) : null, expected);
+    }
+
+    private static String compare(Object actual, Object expected) {
+        if (actual == null ? expected == null : actual.equals(expected)) {
+            return null;
+        }
+        return "got " + actual + ", expected " + expected;
+    }
+
+    private static String describe(Trace trace, int i) {
+        int op = trace.ops[i];
+        switch (op) {
+            case FIRST:
+            case LAST:
+                return OP_NAMES[op] + "()";
+            case CONTAINS:
+            case FLOOR:
+            case CEILING:
+            case LOWER:
+            case HIGHER:
+            case VALUE:
+            case RANK:
+            case REMOVE_BELOW:
+            case REMOVE_ABOVE:
+                return OP_NAMES[op] + "(" + trace.keys[i] + ")";
+            default:
+                return OP_NAMES[op] + "(" + trace.keys[i] + ", " + trace.args[i] + ")";
+        }
+    }
+
+    /**
+     * 缩减失败的trace：按块大小从长度的一半开始，每次减半，尝试删掉每一块，只要删掉后仍然失败就接受。
+     * 缩减时每个操作之后都做完整检查，让问题尽早暴露。
+     * @return 不能再删掉任何单个操作的失败trace
+     */
+    static Trace shrink(Trace trace) {
+        Trace best = trace;
+        for (int chunk = Math.max(1, best.length() / 2); chunk >= 1; chunk /= 2) {
+            boolean removed = true;
+            while (removed) {
+                removed = false;
+                for (int from = 0; from + chunk <= best.length(); ) {
+                    Trace candidate = best.without(from, from + chunk);
+                    if (run(candidate, 1) != null) {
+                        best = candidate;
+                        removed = true;
+                    } else {
+                        from += chunk;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 复现trace的Java代码。tree声明为RedBlackTreeFromJDK，子类特有的方法通过强制转换调用。
+     */
+    static String toJava(Trace trace) {
+        StringBuilder sb = new StringBuilder();
+        String kind = KIND_NAMES[trace.kind];
+        sb.append("RedBlackTreeFromJDK tree = new ").append(kind)
+                .append(trace.kind == MULTISET ? "()" : "(" + trace.orderStatistics + ")").append(";\n");
+        String finger = trace.fingerSearch ? " tree.setFingerSearch(true);" : "";
+        if (trace.fingerSearch) {
+            sb.append("tree.setFingerSearch(true);\n");
+        }
+        String self = "((" + kind + ") tree)";
+        for (int i = 0; i < trace.length(); i++) {
+            int op = trace.ops[i];
+            int key = trace.keys[i];
+            int arg = trace.args[i];
+            switch (op) {
+                case ADD:
+                    if (trace.kind == MULTISET && (arg & 4) != 0) {
+                        sb.append(self).append(".add(").append(key).append(", ").append(occurrences(arg)).append(");\n");
+                    } else if (trace.kind == MAP) {
+                        sb.append(self).append((arg & 1) == 0 ? ".put(" : ".addTo(").append(key).append(", ")
+                                .append(arg).append(");\n");
+                    } else {
+                        sb.append("tree.add(").append(key).append(");\n");
+                    }
+                    break;
+                case REMOVE:
+                    if (trace.kind == MULTISET && (arg & 4) != 0) {
+                        sb.append(self).append(".remove(").append(key).append(", ").append(occurrences(arg))
+                                .append(");\n");
+                    } else {
+                        sb.append("tree.remove(").append(key).append(");\n");
+                    }
+                    break;
+                case VALUE:
+                    if (trace.kind == SET) {
+                        sb.append("tree.contains(").append(key).append(");\n");
+                    } else {
+                        sb.append(self).append(trace.kind == MULTISET ? ".count(" + key + ")" : ".get(" + key + ", -1)")
+                                .append(";\n");
+                    }
+                    break;
+                case FIRST:
+                case LAST:
+                    sb.append("if (tree.size() > 0) { tree.").append(describe(trace, i)).append("; }\n");
+                    break;
+                case SELECT:
+                    // 没有顺序统计时、树为空时这些查询按预期抛出异常，又不修改树，复现代码中省略
+                    if (trace.orderStatistics) {
+                        sb.append("if (tree.size() > 0) { tree.select(Math.floorMod(").append(arg).append(", ")
+                                .append(trace.kind == MULTISET ? self + ".totalSize()" : "tree.size()")
+                                .append(")); }\n");
+                    }
+                    break;
+                case RANK:
+                    if (trace.orderStatistics) {
+                        sb.append("tree.").append(describe(trace, i)).append(";\n");
+                    }
+                    break;
+                case COUNT_IN_RANGE:
+                    if (trace.orderStatistics) {
+                        sb.append("tree.countInRange(").append(key).append(", ")
+                                .append(upperBound(key, arg, trace.range)).append(");\n");
+                    }
+                    break;
+                case REMOVE_RANGE:
+                    sb.append("tree.removeRange(").append(key).append(", ")
+                            .append(upperBound(key, arg, trace.range)).append(");\n");
+                    break;
+                case ADD_ALL: {
+                    String keys = intArray(batch(arg, trace.range));
+                    sb.append("tree.addAll(").append((key & 1) == 0 ? keys : "IntStream.of(" + keys + ")").append(");\n");
+                    break;
+                }
+                case REMOVE_ALL: {
+                    int[] keys = batch(arg, trace.range);
+                    Arrays.sort(keys);
+                    sb.append("tree.removeAll(").append(intArray(keys)).append(");\n");
+                    break;
+                }
+                case SPLIT_JOIN:
+                    sb.append("{ RedBlackTreeFromJDK[] p = tree.split(").append(key).append("); tree = ");
+                    if ((arg & 1) == 0) {
+                        sb.append("RedBlackTreeFromJDK.concat(p[0], p[1]);");
+                    } else {
+                        sb.append("p[1].contains(").append(key).append(") ? RedBlackTreeFromJDK.concat(p[0], p[1])")
+                                .append(" : RedBlackTreeFromJDK.join(p[0], ").append(key).append(", p[1]);");
+                    }
+                    sb.append(finger).append(" }\n");
+                    break;
+                case UNION:
+                case INTERSECTION:
+                case DIFFERENCE:
+                    sb.append("{ int[] keys = ").append(intArray(batch(arg, trace.range))).append("; ")
+                            .append(kind).append(" b = new ").append(kind)
+                            .append(trace.kind == MULTISET ? "()" : "(" + trace.orderStatistics + ")").append("; ");
+                    if (trace.kind == MAP) {
+                        sb.append("for (int j = 0; j < keys.length; j++) { b.put(keys[j], j); } ");
+                    } else {
+                        sb.append("b.addAll(keys); ");
+                    }
+                    sb.append("tree = RedBlackTreeFromJDK.").append(OP_NAMES[op]).append("(tree, b);")
+                            .append(finger).append(" }\n");
+                    break;
+                case ITERATOR_REMOVE: {
+                    int every = removeEvery(arg);
+                    String condition = "j % " + every + " == " + Math.floorMod(key, every);
+                    if (trace.kind == MAP) {
+                        sb.append("{ IntLongSortedMap.Cursor c = ").append(self).append(".cursor(); ")
+                                .append("for (int j = 0; c.advance(); j++) { if (").append(condition)
+                                .append(") { c.remove(); } else if (j % 2 == 1) { c.setValue(c.value() + ")
+                                .append(arg).append("); } } }\n");
+                    } else {
+                        sb.append("{ PrimitiveIterator.OfInt it = tree.")
+                                .append((key & 1) == 0 ? "iterator()" : "descendingIterator()")
+                                .append("; for (int j = 0; it.hasNext(); j++) { it.nextInt(); if (").append(condition)
+                                .append(") { it.remove(); } } }\n");
+                    }
+                    break;
+                }
+                default:
+                    sb.append("tree.").append(describe(trace, i)).append(";\n");
+            }
+        }
+        sb.append("System.out.println(tree.validate());\n");
+        return sb.toString();
+    }
+
+    private static String intArray(int[] keys) {
+        StringBuilder sb = new StringBuilder("new int[]{");
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(keys[i]);
+        }
+        return sb.append("}").toString();
+    }
+
+    public static void main(String[] args) {
+        long seeds = 1000;
+        long startSeed = 0;
+        int ops = 10000;
+        int validateEvery = 1024;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "seeds":
+                    seeds = Long.parseLong(value);
+                    break;
+                case "startSeed":
+                    startSeed = Long.parseLong(value);
+                    break;
+                case "ops":
+                    ops = Integer.parseInt(value);
+                    break;
+                case "validateEvery":
+                    validateEvery = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (long seed = startSeed; seed < startSeed + seeds; seed++) {
+            Trace trace = generate(seed, ops);
+            String error = run(trace, validateEvery);
+            if (error != null) {
+                System.out.println("Seed " + seed + " (" + KIND_NAMES[trace.kind] + ") failed: " + error);
+                Trace minimal = shrink(trace);
+                System.out.println("Minimal trace (" + minimal.length() + " ops) fails with: " + run(minimal, 1));
+                System.out.print(toJava(minimal));
+                System.exit(1);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d seeds, %d ops, %.1f s, %.0f ops/s, no differences%n",
+                seeds, seeds * ops, seconds, seeds * ops / seconds);
+    }
+}
@@ -0,0 +1,70 @@
+package rbt.gen;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 根据 rbt/gen 下的模板生成只有原始类型不同的各个类，保证它们的算法始终同步。
+ * 1、rbt/gen/KeyRedBlackTree.java.template 生成各种原始类型键的红黑树，占位符：
+ *   ${Class} 生成的类名，例如 LongRedBlackTree
+ *   ${key}   键的原始类型，例如 long
+ *   ${Key}   键的包装类型名，用于 ${Key}.compare、Optional${Key}、${Key}Consumer、PrimitiveIterator.Of${Key}、next${Key}
+ * 2、rbt/gen/IntValueSortedMap.java.template 生成int键、各种原始类型值的有序映射，占位符：
+ *   ${Class} 生成的类名，例如 IntLongSortedMap
+ *   ${value} 值的原始类型，例如 long
+ *   ${Value} 值类型在类名中的写法，用于 Int${Value}Consumer
+ *   ${Boxed} 值的包装类型，只出现在注释中
+ * 修改模板后，在仓库根目录执行：java rbt.gen.KeyTreeGenerator [仓库根目录]
+ */
+public class KeyTreeGenerator {
+
+    private static final String[] KEY_PLACEHOLDERS = {"${Class}", "${key}", "${Key}"};
+    /**
+     * 每一行依次为 ${Class}、${key}、${Key}。
+     */
+    private static final String[][] KEY_VARIANTS = {
+            {"LongRedBlackTree", "long", "Long"},
+            {"DoubleRedBlackTree", "double", "Double"},
+    };
+
+    private static final String[] MAP_PLACEHOLDERS = {"${Class}", "${value}", "${Value}", "${Boxed}"};
+    /**
+     * 每一行依次为 ${Class}、${value}、${Value}、${Boxed}。
+     */
+    private static final String[][] MAP_VARIANTS = {
+            {"IntIntSortedMap", "int", "Int", "Integer"},
+            {"IntLongSortedMap", "long", "Long", "Long"},
+    };
+
+    public static void main(String[] args) throws IOException {
+        Path base = Paths.get(args.length > 0 ? args[0] : ".");
+        generate(base, "KeyRedBlackTree.java.template", KEY_PLACEHOLDERS, KEY_VARIANTS);
+        generate(base, "IntValueSortedMap.java.template", MAP_PLACEHOLDERS, MAP_VARIANTS);
+    }
+
+    /**
+     * 用variants的每一行替换模板中的placeholders，生成 rbt/${Class}.java。每一行的第一个值为类名。
+     */
+    private static void generate(Path base, String templateName, String[] placeholders, String[][] variants)
+            throws IOException {
+        Path template = base.resolve("rbt/gen/" + templateName);
+        String source = new String(Files.readAllBytes(template), StandardCharsets.UTF_8);
+        for (String[] v : variants) {
+            String out = source;
+            for (int i = 0; i < placeholders.length; i++) {
+                out = out.replace(placeholders[i], v[i]);
+            }
+            if (out.contains("${")) {
+                throw new IllegalStateException("Unknown placeholder left in " + templateName + ": "
+                        + out.substring(out.indexOf("${"), out.indexOf("${") + 16));
+            }
+            Path target = base.resolve("rbt/" + v[0] + ".java");
+            Files.write(target, out.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Generated " + target);
+        }
+    }
+}